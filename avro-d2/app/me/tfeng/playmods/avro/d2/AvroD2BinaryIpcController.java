@@ -24,9 +24,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
-import me.tfeng.playmods.avro.AsyncResponder;
 import me.tfeng.playmods.avro.BinaryIpcController;
-import me.tfeng.playmods.avro.d2.factories.ResponderFactory;
+import me.tfeng.playmods.avro.ResponderRegistry;
 
 /**
  * @author Thomas Feng (huining.feng@gmail.com)
@@ -35,11 +34,11 @@ import me.tfeng.playmods.avro.d2.factories.ResponderFactory;
 public class AvroD2BinaryIpcController extends BinaryIpcController {
 
   @Autowired
-  @Qualifier("play-mods.avro-d2.responder-factory")
-  private ResponderFactory responderFactory;
+  @Qualifier("play-mods.avro-d2.component")
+  private AvroD2Component avroD2Component;
 
   @Override
-  protected AsyncResponder createResponder(Class<?> protocolClass, Object implementation) {
-    return responderFactory.create(protocolClass, implementation);
+  protected ResponderRegistry getResponderRegistry() {
+    return avroD2Component.getResponderRegistry();
   }
 }
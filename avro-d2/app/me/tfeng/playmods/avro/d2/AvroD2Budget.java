@@ -0,0 +1,62 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro.d2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class AvroD2Budget {
+
+  private static final long TOKEN = 1000;
+
+  private final long deposit;
+
+  private final long maxTokens;
+
+  private final AtomicLong tokens;
+
+  public AvroD2Budget(double ratio, double maxTokens) {
+    deposit = (long) (ratio * TOKEN);
+    this.maxTokens = (long) (maxTokens * TOKEN);
+    tokens = new AtomicLong(this.maxTokens);
+  }
+
+  public void deposit() {
+    tokens.accumulateAndGet(deposit, (current, amount) -> Math.min(current + amount, maxTokens));
+  }
+
+  public double getTokens() {
+    return (double) tokens.get() / TOKEN;
+  }
+
+  public boolean tryWithdraw() {
+    while (true) {
+      long current = tokens.get();
+      if (current < TOKEN) {
+        return false;
+      } else if (tokens.compareAndSet(current, current - TOKEN)) {
+        return true;
+      }
+    }
+  }
+}
@@ -20,54 +20,112 @@
 
 package me.tfeng.playmods.avro.d2;
 
-import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.apache.avro.AvroRemoteException;
 import org.apache.avro.Protocol;
+import org.apache.avro.Protocol.Message;
 import org.apache.avro.ipc.AsyncRequestor;
 import org.apache.avro.specific.SpecificData;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.NoNodeException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
+import me.tfeng.playmods.avro.IpcHelper;
+import me.tfeng.playmods.avro.d2.balancers.LoadBalancer;
 import me.tfeng.playmods.avro.d2.factories.RequestorFactory;
 import me.tfeng.playmods.avro.d2.factories.TransceiverFactory;
-import me.tfeng.toolbox.common.Constants;
+import me.tfeng.playmods.http.RequestPreparer;
+import me.tfeng.playmods.spring.ApplicationError;
+import me.tfeng.playmods.spring.ExceptionWrapper;
 import play.Logger;
 import play.Logger.ALogger;
+import play.mvc.Http;
 
 /**
  * @author Thomas Feng (huining.feng@gmail.com)
  */
 public class AvroD2Client implements Watcher, InvocationHandler {
 
+  private static final int LATENCY_SAMPLES = 1024;
+
   private static final ALogger LOG = Logger.of(AvroD2Client.class);
 
+  private final long clientRefreshJitter;
+
   private final long clientRefreshRetryDelay;
 
   private final SpecificData data;
 
+  private final AvroD2EjectionPolicy ejectionPolicy;
+
+  private volatile List<AvroD2Endpoint> endpoints = ImmutableList.of();
+
+  private final Set<String> hedgedMessages;
+
+  private final AvroD2Budget hedgingBudget;
+
+  private final Executor hedgingExecutor;
+
+  private final AvroD2HedgingPolicy hedgingPolicy;
+
+  private final ScheduledExecutorService hedgingScheduler;
+
+  private final Set<String> idempotentMessages;
+
   private volatile boolean isVersionRegistered;
 
-  private volatile int lastIndex = -1;
+  private final long latencyDecayTime;
+
+  private final Map<String, AvroD2LatencyTracker> latencyTrackers = new ConcurrentHashMap<>();
+
+  private final LoadBalancer loadBalancer;
 
   private final Protocol protocol;
 
   private volatile boolean refreshed;
 
+  private final Object refreshLock = new Object();
+
+  private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
   private final RequestorFactory requestorFactory;
 
+  private final AvroD2Budget retryBudget;
+
+  private final AvroD2RetryPolicy retryPolicy;
+
   private final ScheduledExecutorService scheduler;
 
-  private final List<URL> serverUrls = Lists.newArrayList();
+  private Map<String, ServerNode> serverNodes = Collections.emptyMap();
 
   private final TransceiverFactory transceiverFactory;
 
@@ -75,26 +133,51 @@ public class AvroD2Client implements Watcher, InvocationHandler {
 
   private final ZooKeeperProvider zkProvider;
 
+  private final String zone;
+
   public AvroD2Client(Protocol protocol, SpecificData data, RequestorFactory requestorFactory,
       TransceiverFactory transceiverFactory, ZooKeeperProvider zkProvider, ScheduledExecutorService scheduler,
-      long clientRefreshRetryDelay, boolean useGenericRecord) {
+      long clientRefreshJitter, long clientRefreshRetryDelay, boolean useGenericRecord, LoadBalancer loadBalancer,
+      long latencyDecayTime, AvroD2EjectionPolicy ejectionPolicy, AvroD2HedgingPolicy hedgingPolicy,
+      ScheduledExecutorService hedgingScheduler, Executor hedgingExecutor, AvroD2RetryPolicy retryPolicy,
+      String zone) {
     this.protocol = protocol;
     this.data = data;
     this.requestorFactory = requestorFactory;
     this.transceiverFactory = transceiverFactory;
     this.zkProvider = zkProvider;
     this.scheduler = scheduler;
+    this.clientRefreshJitter = clientRefreshJitter;
     this.clientRefreshRetryDelay = clientRefreshRetryDelay;
     this.useGenericRecord = useGenericRecord;
+    this.loadBalancer = loadBalancer;
+    this.latencyDecayTime = latencyDecayTime;
+    this.ejectionPolicy = ejectionPolicy;
+    this.hedgingPolicy = hedgingPolicy;
+    this.hedgingScheduler = hedgingScheduler;
+    this.hedgingExecutor = hedgingExecutor;
+    hedgedMessages = protocol.getMessages().values().stream()
+        .filter(message -> hedgingPolicy.isHedged(protocol, message))
+        .map(Message::getName)
+        .collect(Collectors.toSet());
+    hedgingBudget = new AvroD2Budget(hedgingPolicy.getBudgetRatio(), hedgingPolicy.getBudgetMaxTokens());
+    this.retryPolicy = retryPolicy;
+    // Hedged messages are idempotent by definition.
+    idempotentMessages = protocol.getMessages().values().stream()
+        .filter(message -> hedgedMessages.contains(message.getName()) || retryPolicy.isIdempotent(protocol, message))
+        .map(Message::getName)
+        .collect(Collectors.toSet());
+    retryBudget = new AvroD2Budget(retryPolicy.getBudgetRatio(), retryPolicy.getBudgetMaxTokens());
+    this.zone = zone;
   }
 
-  public synchronized URL getNextServerUrl() {
-    if (serverUrls.isEmpty()) {
-      throw new RuntimeException("No server is found for " + protocol.getName());
-    } else {
-      lastIndex = (lastIndex + 1) % serverUrls.size();
-      return serverUrls.get(lastIndex);
-    }
+  public List<AvroD2Endpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  public URL getNextServerUrl() {
+    // No tracked request is sent here, so an ejected server must not be put into probing.
+    return selectEndpoint(Collections.emptyList(), false).getUrl();
   }
 
   public Protocol getProtocol() {
@@ -103,65 +186,317 @@ public class AvroD2Client implements Watcher, InvocationHandler {
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    return setupRequest().invoke(proxy, method, args);
+    return AsyncRequestor.getResult(method, request(method.getName(), args), requestorFactory.getRequestTimeout());
   }
 
   @Override
   public void process(WatchedEvent event) {
-    refresh();
+    // Events in a burst, such as those of a rolling deployment, are coalesced into one refresh, and the jitter keeps
+    // clients from reading ZooKeeper at the same time.
+    scheduleRefresh(clientRefreshJitter > 0 ? ThreadLocalRandom.current().nextLong(clientRefreshJitter) : 0);
   }
 
   public void refresh() {
-    List<String> children;
-    String path = AvroD2Helper.getServersZkPath(protocol);
-    try {
-      children = zkProvider.getZooKeeper().getChildren(path, this);
-    } catch (Exception e) {
-      LOG.warn("Unable to list servers for " + protocol.getName() + "; retry later", e);
-      scheduleRefresh();
-      return;
-    }
+    // Refreshes are serialized so that an older server list is never published over a newer one. Request routing
+    // only reads the published snapshot and is never blocked by a refresh.
+    synchronized (refreshLock) {
+      refreshScheduled.set(false);
+      List<String> children;
+      String path = AvroD2Helper.getServersZkPath(protocol);
+      try {
+        children = zkProvider.getZooKeeper().getChildren(path, this);
+      } catch (Exception e) {
+        LOG.warn("Unable to list servers for " + protocol.getName() + "; retry later", e);
+        scheduleRefresh(clientRefreshRetryDelay);
+        return;
+      }
 
-    synchronized(this) {
-      serverUrls.clear();
+      // Keyed by URL strings, because URL.equals() and URL.hashCode() may resolve host names.
+      Map<String, AvroD2Endpoint> existingEndpoints = endpoints.stream()
+          .collect(Collectors.toMap(endpoint -> endpoint.getUrl().toString(), Function.identity(), (x, y) -> x));
+      Map<String, ServerNode> newServerNodes = Maps.newHashMapWithExpectedSize(children.size());
+      List<AvroD2Endpoint> newEndpoints = Lists.newArrayListWithCapacity(children.size());
+      boolean isComplete = true;
       for (String child : children) {
         String childPath = path + "/" + child;
         try {
-          byte[] data = zkProvider.getZooKeeper().getData(childPath, false, null);
-          String serverUrl = new String(data, Constants.UTF8);
-          serverUrls.add(new URL(serverUrl));
+          // Server nodes are ephemeral and sequential, and their data never changes, so only new nodes are read.
+          ServerNode serverNode = serverNodes.get(child);
+          if (serverNode == null) {
+            byte[] data = zkProvider.getZooKeeper().getData(childPath, false, null);
+            serverNode = AvroD2Helper.readServerNode(data);
+          }
+          newServerNodes.put(child, serverNode);
+
+          AvroD2Endpoint endpoint = existingEndpoints.get(serverNode.getUrl().toString());
+          if (endpoint == null || !endpoint.getServerNode().equals(serverNode)) {
+            endpoint = createEndpoint(serverNode);
+          }
+          newEndpoints.add(endpoint);
+        } catch (NoNodeException e) {
+          // The server is gone since the children were listed.
         } catch (Exception e) {
           LOG.warn("Unable to get server URL from node " + childPath, e);
+          isComplete = false;
         }
       }
+      serverNodes = newServerNodes;
+      endpoints = ImmutableList.copyOf(newEndpoints);
 
-      if (serverUrls.isEmpty()) {
+      if (newEndpoints.isEmpty()) {
         LOG.warn("Unable to get any server URL for protocol " + protocol.getName() + "; retry later");
-        scheduleRefresh();
+        scheduleRefresh(clientRefreshRetryDelay);
+      } else if (!isComplete) {
+        scheduleRefresh(clientRefreshRetryDelay);
       }
     }
   }
 
   public CompletionStage<Object> request(String message, Object[] request) throws Exception {
-    return setupRequest().request(message, request);
+    setupRequest();
+    RequestPreparer requestPreparer = requestorFactory.createRequestPreparer();
+    retryBudget.deposit();
+    return request(message, request, requestPreparer, ConcurrentHashMap.newKeySet(), retryPolicy.getMaxRetries());
   }
 
-  private void scheduleRefresh() {
-    scheduler.schedule(this::refresh, clientRefreshRetryDelay, TimeUnit.MILLISECONDS);
+  private AvroD2Endpoint createEndpoint(ServerNode serverNode) throws Exception {
+    URL url = new URL(serverNode.getUrl().toString());
+    AsyncRequestor requestor =
+        requestorFactory.create(protocol, transceiverFactory.create(protocol, url), data, useGenericRecord);
+    return new AvroD2Endpoint(url, serverNode, requestor, latencyDecayTime, ejectionPolicy);
+  }
+
+  private CompletionStage<Object> hedgedRequest(String message, Object[] request, RequestPreparer requestPreparer,
+      Set<AvroD2Endpoint> attemptedEndpoints) throws Exception {
+    hedgingBudget.deposit();
+    AvroD2LatencyTracker latencyTracker = latencyTrackers.computeIfAbsent(message,
+        key -> new AvroD2LatencyTracker(LATENCY_SAMPLES, hedgingPolicy.getPercentile()));
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    AtomicInteger pending = new AtomicInteger(1);
+
+    AvroD2Endpoint endpoint = selectAttemptedEndpoint(attemptedEndpoints);
+    hedgedRequest(endpoint, message, request, requestPreparer, future, pending, latencyTracker);
+
+    Supplier<Object> hedge = IpcHelper.preserveContext(() -> {
+      if (future.isDone()) {
+        return null;
+      }
+      // A hedge may never be sent, so it must not put an ejected server into probing.
+      AvroD2Endpoint hedgeEndpoint = selectEndpoint(attemptedEndpoints, false);
+      if (hedgeEndpoint == null || !hedgingBudget.tryWithdraw()) {
+        return null;
+      }
+      if (pending.getAndUpdate(count -> count == 0 ? 0 : count + 1) == 0) {
+        return null;
+      }
+      attemptedEndpoints.add(hedgeEndpoint);
+      try {
+        hedgedRequest(hedgeEndpoint, message, request, requestPreparer, future, pending, latencyTracker);
+      } catch (Exception e) {
+        if (pending.decrementAndGet() == 0) {
+          future.completeExceptionally(e);
+        }
+      }
+      return null;
+    });
+    long delay = Math.max(TimeUnit.NANOSECONDS.toMillis(latencyTracker.getPercentileLatency()),
+        hedgingPolicy.getMinDelay());
+    // The timer only hands the hedge over to the executor, so that sending it never delays other timers.
+    ScheduledFuture<?> timer =
+        hedgingScheduler.schedule(() -> hedgingExecutor.execute(hedge::get), delay, TimeUnit.MILLISECONDS);
+
+    future.whenComplete((result, error) -> timer.cancel(false));
+    return future;
   }
 
-  private synchronized AsyncRequestor setupRequest() throws IOException, InterruptedException, KeeperException {
+  private void hedgedRequest(AvroD2Endpoint endpoint, String message, Object[] request,
+      RequestPreparer requestPreparer, CompletableFuture<Object> future, AtomicInteger pending,
+      AvroD2LatencyTracker latencyTracker) throws Exception {
+    long startTime = System.nanoTime();
+    AtomicBoolean ignored = new AtomicBoolean();
+    CompletableFuture<Object> attempt =
+        request(endpoint, message, request, requestPreparer, ignored::get).toCompletableFuture();
+    attempt.whenComplete((result, error) -> {
+      if (ignored.get()) {
+        return;
+      }
+      if (error == null) {
+        latencyTracker.record(System.nanoTime() - startTime);
+        future.complete(result);
+      } else if (pending.decrementAndGet() == 0) {
+        future.completeExceptionally(error);
+      }
+    });
+    future.whenComplete((result, error) -> {
+      // Hedging ignores the slower request rather than aborting it. Its HTTP call runs to completion, but its response
+      // is dropped and left out of the endpoint's statistics.
+      if (!attempt.isDone()) {
+        ignored.set(true);
+      }
+    });
+  }
+
+  private boolean isServerFailure(Throwable error) {
+    if (error == null) {
+      return false;
+    }
+    Throwable cause = ExceptionWrapper.unwrap(error);
+    if (cause instanceof ApplicationError) {
+      return ((ApplicationError) cause).getStatus() >= Http.Status.INTERNAL_SERVER_ERROR;
+    } else {
+      return !(cause instanceof AvroRemoteException);
+    }
+  }
+
+  private CompletionStage<Object> request(AvroD2Endpoint endpoint, String message, Object[] request,
+      RequestPreparer requestPreparer, BooleanSupplier ignored) throws Exception {
+    long startTime = endpoint.requestStarted();
+    CompletionStage<Object> completionStage;
+    try {
+      completionStage = endpoint.getRequestor().request(message, request, requestPreparer);
+    } catch (Exception e) {
+      endpoint.requestAborted();
+      throw e;
+    }
+    completionStage.whenComplete((result, error) -> {
+      if (error instanceof CancellationException || ignored.getAsBoolean()) {
+        endpoint.requestAborted();
+      } else {
+        endpoint.requestCompleted(startTime, !isServerFailure(error));
+      }
+    });
+    return completionStage;
+  }
+
+  private CompletionStage<Object> request(String message, Object[] request, RequestPreparer requestPreparer,
+      Set<AvroD2Endpoint> attemptedEndpoints, int retries) throws Exception {
+    CompletionStage<Object> completionStage;
+    if (hedgedMessages.contains(message)) {
+      completionStage = hedgedRequest(message, request, requestPreparer, attemptedEndpoints);
+    } else {
+      completionStage =
+          request(selectAttemptedEndpoint(attemptedEndpoints), message, request, requestPreparer, () -> false);
+    }
+    if (retries <= 0) {
+      return completionStage;
+    }
+
+    Function<Throwable, CompletionStage<Object>> retry = IpcHelper.preserveContext(ExceptionWrapper.wrapFunction(
+        error -> {
+          boolean hasOtherEndpoints = endpoints.stream().anyMatch(endpoint -> !attemptedEndpoints.contains(endpoint));
+          if (hasOtherEndpoints && retryPolicy.isRetriable(error, idempotentMessages.contains(message))
+              && retryBudget.tryWithdraw()) {
+            LOG.info("Retrying message " + message + " of protocol " + protocol.getName() + " on another server",
+                error);
+            return request(message, request, requestPreparer, attemptedEndpoints, retries - 1);
+          } else {
+            return completionStage;
+          }
+        }));
+    return completionStage
+        .handle((result, error) -> error == null ? completionStage : retry.apply(error))
+        .thenCompose(Function.identity());
+  }
+
+  private void scheduleRefresh(long delay) {
+    if (refreshScheduled.compareAndSet(false, true)) {
+      scheduler.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private AvroD2Endpoint selectAttemptedEndpoint(Set<AvroD2Endpoint> attemptedEndpoints) {
+    AvroD2Endpoint endpoint = selectEndpoint(attemptedEndpoints, true);
+    if (endpoint == null) {
+      throw new RuntimeException("No other server is found for " + protocol.getName());
+    }
+    attemptedEndpoints.add(endpoint);
+    return endpoint;
+  }
+
+  private AvroD2Endpoint selectEndpoint(Collection<AvroD2Endpoint> excludedEndpoints, boolean allowProbe) {
+    List<AvroD2Endpoint> currentEndpoints = endpoints;
+    if (currentEndpoints.isEmpty()) {
+      throw new RuntimeException("No server is found for " + protocol.getName());
+    }
+
+    long now = System.currentTimeMillis();
+    List<AvroD2Endpoint> availableEndpoints = null;
+    for (int i = 0; i < currentEndpoints.size(); i++) {
+      AvroD2Endpoint endpoint = currentEndpoints.get(i);
+      boolean isExcluded = excludedEndpoints.contains(endpoint);
+      if (!isExcluded && !endpoint.isAvailable()) {
+        if (allowProbe && endpoint.tryProbe(now)) {
+          return endpoint;
+        }
+        isExcluded = true;
+      }
+      if (isExcluded) {
+        if (availableEndpoints == null) {
+          availableEndpoints = new ArrayList<>(currentEndpoints.subList(0, i));
+        }
+      } else if (availableEndpoints != null) {
+        availableEndpoints.add(endpoint);
+      }
+    }
+
+    if (availableEndpoints == null) {
+      return loadBalancer.select(selectZone(currentEndpoints));
+    } else if (!availableEndpoints.isEmpty()) {
+      return loadBalancer.select(selectZone(availableEndpoints));
+    } else {
+      // All remaining servers are ejected; fail open rather than rejecting the request.
+      List<AvroD2Endpoint> remainingEndpoints = currentEndpoints.stream()
+          .filter(endpoint -> !excludedEndpoints.contains(endpoint))
+          .collect(Collectors.toList());
+      return remainingEndpoints.isEmpty() ? null : loadBalancer.select(selectZone(remainingEndpoints));
+    }
+  }
+
+  private List<AvroD2Endpoint> selectZone(List<AvroD2Endpoint> candidateEndpoints) {
+    if (zone == null) {
+      return candidateEndpoints;
+    }
+
+    int localCount = 0;
+    for (AvroD2Endpoint endpoint : candidateEndpoints) {
+      if (zone.equals(endpoint.getZone()) && endpoint.hasCapacity()) {
+        localCount++;
+      }
+    }
+
+    if (localCount == 0) {
+      // Spill over to other zones only if no server in the local zone has capacity left.
+      return candidateEndpoints;
+    } else if (localCount == candidateEndpoints.size()) {
+      return candidateEndpoints;
+    } else {
+      List<AvroD2Endpoint> localEndpoints = new ArrayList<>(localCount);
+      for (AvroD2Endpoint endpoint : candidateEndpoints) {
+        if (zone.equals(endpoint.getZone()) && endpoint.hasCapacity()) {
+          localEndpoints.add(endpoint);
+        }
+      }
+      return localEndpoints;
+    }
+  }
+
+  private void setupRequest() throws InterruptedException, KeeperException {
     if (!refreshed) {
-      refreshed = true;
-      refresh();
+      synchronized (this) {
+        if (!refreshed) {
+          refresh();
+          refreshed = true;
+        }
+      }
     }
 
     if (!isVersionRegistered) {
-      AvroD2Helper.createVersionNode(zkProvider.getZooKeeper(), protocol);
-      isVersionRegistered = true;
+      synchronized (this) {
+        if (!isVersionRegistered) {
+          AvroD2Helper.createVersionNode(zkProvider.getZooKeeper(), protocol);
+          isVersionRegistered = true;
+        }
+      }
     }
-
-    return requestorFactory.create(protocol, transceiverFactory.create(protocol, getNextServerUrl()), data,
-        useGenericRecord);
   }
 }
@@ -24,10 +24,13 @@ import java.io.IOException;
 import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -44,7 +47,12 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.base.Strings;
+
+import me.tfeng.playmods.avro.AvroComponent;
+import me.tfeng.playmods.avro.ResponderRegistry;
 import me.tfeng.playmods.avro.d2.factories.ClientFactory;
+import me.tfeng.playmods.avro.d2.factories.ResponderFactory;
 import me.tfeng.toolbox.avro.AvroHelper;
 import me.tfeng.toolbox.spring.ApplicationManager;
 import me.tfeng.toolbox.spring.ExtendedStartable;
@@ -57,6 +65,10 @@ import play.Logger.ALogger;
 @Component("play-mods.avro-d2.component")
 public class AvroD2Component implements ExtendedStartable, InitializingBean, Watcher, ZooKeeperProvider {
 
+  public static final String HEDGED_MESSAGES_KEY = "play-mods.avro-d2.hedged-messages";
+
+  public static final String IDEMPOTENT_MESSAGES_KEY = "play-mods.avro-d2.idempotent-messages";
+
   public static final String PROTOCOL_PATHS_KEY = "play-mods.avro-d2.protocol-paths";
 
   private static final ALogger LOG = Logger.of(AvroD2Component.class);
@@ -65,22 +77,93 @@ public class AvroD2Component implements ExtendedStartable, InitializingBean, Wat
   @Qualifier("play-mods.spring.application-manager")
   private ApplicationManager applicationManager;
 
+  @Autowired
+  @Qualifier("play-mods.avro.component")
+  private AvroComponent avroComponent;
+
   @Autowired
   @Qualifier("play-mods.avro-d2.client-factory")
   private ClientFactory clientFactory;
 
+  @Value("${play-mods.avro-d2.client-refresh-jitter:500}")
+  private long clientRefreshJitter;
+
   @Value("${play-mods.avro-d2.client-refresh-retry-delay:1000}")
   private long clientRefreshRetryDelay;
 
+  @Value("${play-mods.avro-d2.ejection-base-time:10000}")
+  private long ejectionBaseTime;
+
+  @Value("${play-mods.avro-d2.ejection-consecutive-failures:5}")
+  private int ejectionConsecutiveFailures;
+
+  @Value("${play-mods.avro-d2.ejection-error-rate:0.5}")
+  private double ejectionErrorRate;
+
+  @Value("${play-mods.avro-d2.ejection-interval:10000}")
+  private long ejectionInterval;
+
+  @Value("${play-mods.avro-d2.ejection-max-time:300000}")
+  private long ejectionMaxTime;
+
+  @Value("${play-mods.avro-d2.ejection-minimum-requests:20}")
+  private int ejectionMinimumRequests;
+
+  private AvroD2EjectionPolicy ejectionPolicy;
+
   @Value("${play-mods.avro-d2.enable-server:true}")
   private boolean enableServer;
 
   private boolean expired;
 
+  @Value("${play-mods.avro-d2.hedge-budget-max-tokens:10}")
+  private double hedgeBudgetMaxTokens;
+
+  @Value("${play-mods.avro-d2.hedge-budget-ratio:0.05}")
+  private double hedgeBudgetRatio;
+
+  @Value("${play-mods.avro-d2.hedge-min-delay:10}")
+  private long hedgeMinDelay;
+
+  @Value("${play-mods.avro-d2.hedge-percentile:0.95}")
+  private double hedgePercentile;
+
+  private AvroD2HedgingPolicy hedgingPolicy;
+
+  private final ScheduledExecutorService hedgingScheduler = Executors.newScheduledThreadPool(1);
+
+  @Value("${play-mods.avro-d2.latency-decay-time:10000}")
+  private long latencyDecayTime;
+
+  @Value("${play-mods.avro-d2.max-retries:0}")
+  private int maxRetries;
+
   private Map<Class<?>, String> protocolPaths;
 
+  // Server metadata can only be read by clients of this version or later, so it is published only once all clients
+  // are upgraded.
+  @Value("${play-mods.avro-d2.publish-server-metadata:false}")
+  private boolean publishServerMetadata;
+
+  @Autowired
+  @Qualifier("play-mods.avro-d2.responder-factory")
+  private ResponderFactory responderFactory;
+
+  private ResponderRegistry responderRegistry;
+
+  @Value("${play-mods.avro-d2.retry-budget-max-tokens:10}")
+  private double retryBudgetMaxTokens;
+
+  @Value("${play-mods.avro-d2.retry-budget-ratio:0.1}")
+  private double retryBudgetRatio;
+
+  private AvroD2RetryPolicy retryPolicy;
+
   private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
+  @Value("${play-mods.avro-d2.server-capacity:0}")
+  private int serverCapacity;
+
   @Value("${play-mods.avro-d2.server-host:localhost}")
   private String serverHost;
 
@@ -92,6 +175,12 @@ public class AvroD2Component implements ExtendedStartable, InitializingBean, Wat
 
   private List<AvroD2Server> servers;
 
+  @Value("${play-mods.avro-d2.server-version:}")
+  private String serverVersion;
+
+  @Value("${play-mods.avro-d2.server-weight:1}")
+  private int serverWeight;
+
   private ZooKeeper zk;
 
   @Value("${play-mods.avro-d2.zk-connect-string:}")
@@ -100,6 +189,9 @@ public class AvroD2Component implements ExtendedStartable, InitializingBean, Wat
   @Value("${play-mods.avro-d2.zk-session-timeout:10000}")
   private int zkSessionTimeout;
 
+  @Value("${play-mods.avro-d2.zone:}")
+  private String zone;
+
   @Override
   public void afterPropertiesSet() throws Exception {
     try {
@@ -107,10 +199,31 @@ public class AvroD2Component implements ExtendedStartable, InitializingBean, Wat
     } catch (NoSuchBeanDefinitionException e) {
       protocolPaths = Collections.emptyMap();
     }
+
+    Set<String> hedgedMessages;
+    try {
+      hedgedMessages = new HashSet<>(applicationManager.getBean(HEDGED_MESSAGES_KEY, Collection.class));
+    } catch (NoSuchBeanDefinitionException e) {
+      hedgedMessages = Collections.emptySet();
+    }
+    hedgingPolicy = new AvroD2HedgingPolicy(hedgedMessages, hedgePercentile, hedgeMinDelay, hedgeBudgetRatio,
+        hedgeBudgetMaxTokens);
+
+    Set<String> idempotentMessages;
+    try {
+      idempotentMessages = new HashSet<>(applicationManager.getBean(IDEMPOTENT_MESSAGES_KEY, Collection.class));
+    } catch (NoSuchBeanDefinitionException e) {
+      idempotentMessages = Collections.emptySet();
+    }
+    retryPolicy = new AvroD2RetryPolicy(idempotentMessages, maxRetries, retryBudgetRatio, retryBudgetMaxTokens);
+
+    ejectionPolicy = new AvroD2EjectionPolicy(ejectionConsecutiveFailures, ejectionErrorRate, ejectionMinimumRequests,
+        ejectionInterval, ejectionBaseTime, ejectionMaxTime);
   }
 
   @Override
   public void afterStart() {
+    responderRegistry = new ResponderRegistry(avroComponent.getProtocolImplementations(), responderFactory::create);
     if (enableServer) {
       connect();
     }
@@ -118,6 +231,7 @@ public class AvroD2Component implements ExtendedStartable, InitializingBean, Wat
 
   @Override
   public void afterStop() {
+    hedgingScheduler.shutdownNow();
   }
 
   @Override
@@ -140,14 +254,46 @@ public class AvroD2Component implements ExtendedStartable, InitializingBean, Wat
         new Class<?>[] { interfaceClass }, clientFactory.create(interfaceClass, data, false)));
   }
 
+  public long getClientRefreshJitter() {
+    return clientRefreshJitter;
+  }
+
   public long getClientRefreshRetryDelay() {
     return clientRefreshRetryDelay;
   }
 
+  public AvroD2EjectionPolicy getEjectionPolicy() {
+    return ejectionPolicy;
+  }
+
+  public AvroD2HedgingPolicy getHedgingPolicy() {
+    return hedgingPolicy;
+  }
+
+  public ScheduledExecutorService getHedgingScheduler() {
+    return hedgingScheduler;
+  }
+
+  public long getLatencyDecayTime() {
+    return latencyDecayTime;
+  }
+
+  public ResponderRegistry getResponderRegistry() {
+    return responderRegistry;
+  }
+
+  public AvroD2RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
   public ScheduledExecutorService getScheduler() {
     return scheduler;
   }
 
+  public String getZone() {
+    return Strings.emptyToNull(zone);
+  }
+
   public ZooKeeper getZooKeeper() {
     return zk;
   }
@@ -196,7 +342,15 @@ public class AvroD2Component implements ExtendedStartable, InitializingBean, Wat
       } catch (Exception e) {
         throw new RuntimeException("Unable to initialize server", e);
       }
-      AvroD2Server server = new AvroD2Server(protocol, url, zk, scheduler, serverRegisterRetryDelay);
+      ServerNode serverNode = ServerNode.newBuilder()
+          .setUrl(url.toString())
+          .setZone(getZone())
+          .setWeight(serverWeight)
+          .setCapacity(serverCapacity > 0 ? serverCapacity : null)
+          .setVersion(Strings.emptyToNull(serverVersion))
+          .build();
+      AvroD2Server server = new AvroD2Server(protocol, url, serverNode, publishServerMetadata, zk, scheduler,
+          serverRegisterRetryDelay);
       server.register();
       servers.add(server);
     }
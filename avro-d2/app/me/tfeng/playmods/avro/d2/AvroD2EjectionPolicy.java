@@ -0,0 +1,77 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro.d2;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class AvroD2EjectionPolicy {
+
+  private final long baseEjectionTime;
+
+  private final int consecutiveFailures;
+
+  private final double errorRate;
+
+  private final long interval;
+
+  private final long maxEjectionTime;
+
+  private final int minimumRequests;
+
+  public AvroD2EjectionPolicy(int consecutiveFailures, double errorRate, int minimumRequests, long interval,
+      long baseEjectionTime, long maxEjectionTime) {
+    this.consecutiveFailures = consecutiveFailures;
+    this.errorRate = errorRate;
+    this.minimumRequests = minimumRequests;
+    this.interval = interval;
+    this.baseEjectionTime = baseEjectionTime;
+    this.maxEjectionTime = maxEjectionTime;
+  }
+
+  public long getBaseEjectionTime() {
+    return baseEjectionTime;
+  }
+
+  public int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  public long getEjectionTime(int ejections) {
+    return Math.min(baseEjectionTime << Math.min(ejections - 1, 20), maxEjectionTime);
+  }
+
+  public double getErrorRate() {
+    return errorRate;
+  }
+
+  public long getInterval() {
+    return interval;
+  }
+
+  public long getMaxEjectionTime() {
+    return maxEjectionTime;
+  }
+
+  public int getMinimumRequests() {
+    return minimumRequests;
+  }
+}
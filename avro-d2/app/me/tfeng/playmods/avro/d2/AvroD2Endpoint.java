@@ -0,0 +1,226 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro.d2;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.ipc.AsyncRequestor;
+
+import play.Logger;
+import play.Logger.ALogger;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class AvroD2Endpoint {
+
+  public enum State {
+    AVAILABLE, EJECTED, PROBING
+  }
+
+  private static final ALogger LOG = Logger.of(AvroD2Endpoint.class);
+
+  private int consecutiveFailures;
+
+  private volatile long ejectedUntil;
+
+  private int ejections;
+
+  private final AvroD2EjectionPolicy ejectionPolicy;
+
+  private double latency;
+
+  private final long latencyDecayTime;
+
+  private long latencyUpdateTime = System.nanoTime();
+
+  private final AtomicInteger outstanding = new AtomicInteger();
+
+  private final AsyncRequestor requestor;
+
+  private final ServerNode serverNode;
+
+  private volatile State state = State.AVAILABLE;
+
+  private final URL url;
+
+  private int windowFailures;
+
+  private int windowRequests;
+
+  private long windowStartTime = System.currentTimeMillis();
+
+  private final String zone;
+
+  public AvroD2Endpoint(URL url, ServerNode serverNode, AsyncRequestor requestor, long latencyDecayTime,
+      AvroD2EjectionPolicy ejectionPolicy) {
+    this.url = url;
+    this.serverNode = serverNode;
+    zone = serverNode.getZone() == null ? null : serverNode.getZone().toString();
+    this.requestor = requestor;
+    this.latencyDecayTime = TimeUnit.MILLISECONDS.toNanos(latencyDecayTime);
+    this.ejectionPolicy = ejectionPolicy;
+  }
+
+  public Integer getCapacity() {
+    return serverNode.getCapacity();
+  }
+
+  public long getEjectedUntil() {
+    return ejectedUntil;
+  }
+
+  public synchronized int getEjections() {
+    return ejections;
+  }
+
+  public synchronized double getLatency() {
+    updateLatency(0);
+    return latency;
+  }
+
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  public AsyncRequestor getRequestor() {
+    return requestor;
+  }
+
+  public ServerNode getServerNode() {
+    return serverNode;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public URL getUrl() {
+    return url;
+  }
+
+  public String getVersion() {
+    return serverNode.getVersion() == null ? null : serverNode.getVersion().toString();
+  }
+
+  public int getWeight() {
+    return serverNode.getWeight();
+  }
+
+  public String getZone() {
+    return zone;
+  }
+
+  public boolean hasCapacity() {
+    Integer capacity = serverNode.getCapacity();
+    return capacity == null || outstanding.get() < capacity;
+  }
+
+  public boolean isAvailable() {
+    return state == State.AVAILABLE;
+  }
+
+  public synchronized void requestAborted() {
+    outstanding.decrementAndGet();
+    if (state == State.PROBING) {
+      state = State.EJECTED;
+    }
+  }
+
+  public void requestCompleted(long startTime, boolean success) {
+    outstanding.decrementAndGet();
+    long latency = System.nanoTime() - startTime;
+    synchronized (this) {
+      updateLatency(latency);
+
+      long now = System.currentTimeMillis();
+      if (now - windowStartTime >= ejectionPolicy.getInterval()) {
+        resetWindow(now);
+      }
+      windowRequests++;
+      if (success) {
+        consecutiveFailures = 0;
+        if (state == State.PROBING) {
+          LOG.info("Server " + url + " is readmitted after a successful probe");
+          state = State.AVAILABLE;
+          ejections = 0;
+        }
+      } else {
+        consecutiveFailures++;
+        windowFailures++;
+        if (state == State.PROBING) {
+          eject(now);
+        } else if (state == State.AVAILABLE && (consecutiveFailures >= ejectionPolicy.getConsecutiveFailures()
+            || windowRequests >= ejectionPolicy.getMinimumRequests()
+            && windowFailures >= ejectionPolicy.getErrorRate() * windowRequests)) {
+          eject(now);
+        }
+      }
+    }
+  }
+
+  public long requestStarted() {
+    outstanding.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  @Override
+  public String toString() {
+    return url.toString();
+  }
+
+  public synchronized boolean tryProbe(long now) {
+    if (state == State.EJECTED && now >= ejectedUntil) {
+      state = State.PROBING;
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  private void eject(long now) {
+    ejections++;
+    long ejectionTime = ejectionPolicy.getEjectionTime(ejections);
+    LOG.warn("Ejecting server " + url + " for " + ejectionTime + "ms after " + consecutiveFailures
+        + " consecutive failures and " + windowFailures + " failures out of " + windowRequests + " requests");
+    ejectedUntil = now + ejectionTime;
+    state = State.EJECTED;
+    consecutiveFailures = 0;
+    resetWindow(now);
+  }
+
+  private void resetWindow(long now) {
+    windowStartTime = now;
+    windowRequests = 0;
+    windowFailures = 0;
+  }
+
+  private void updateLatency(double sample) {
+    // Peak EWMA: a sample higher than the current average replaces it, and lower samples are folded in with a weight
+    // that decays with the time since the last update.
+    long now = System.nanoTime();
+    double decay = Math.exp(-(now - latencyUpdateTime) / (double) latencyDecayTime);
+    latencyUpdateTime = now;
+    latency = sample > latency ? sample : latency * decay + sample * (1 - decay);
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro.d2;
+
+import java.util.Set;
+
+import org.apache.avro.Protocol;
+import org.apache.avro.Protocol.Message;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class AvroD2HedgingPolicy {
+
+  public static final String HEDGED_PROP = "hedged";
+
+  private final double budgetMaxTokens;
+
+  private final double budgetRatio;
+
+  private final Set<String> hedgedMessages;
+
+  private final long minDelay;
+
+  private final double percentile;
+
+  public AvroD2HedgingPolicy(Set<String> hedgedMessages, double percentile, long minDelay, double budgetRatio,
+      double budgetMaxTokens) {
+    this.hedgedMessages = hedgedMessages;
+    this.percentile = percentile;
+    this.minDelay = minDelay;
+    this.budgetRatio = budgetRatio;
+    this.budgetMaxTokens = budgetMaxTokens;
+  }
+
+  public double getBudgetMaxTokens() {
+    return budgetMaxTokens;
+  }
+
+  public double getBudgetRatio() {
+    return budgetRatio;
+  }
+
+  public long getMinDelay() {
+    return minDelay;
+  }
+
+  public double getPercentile() {
+    return percentile;
+  }
+
+  public boolean isHedged(Protocol protocol, Message message) {
+    return Boolean.TRUE.equals(message.getObjectProp(HEDGED_PROP))
+        || hedgedMessages.contains(AvroD2Helper.getFullName(protocol) + "." + message.getName());
+  }
+}
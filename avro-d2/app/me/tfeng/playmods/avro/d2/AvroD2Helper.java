@@ -20,13 +20,16 @@
 
 package me.tfeng.playmods.avro.d2;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 
 import javax.xml.bind.DatatypeConverter;
 
 import org.apache.avro.Protocol;
+import org.apache.avro.specific.SpecificData;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.NodeExistsException;
@@ -35,6 +38,8 @@ import org.apache.zookeeper.ZooKeeper;
 
 import com.google.common.base.Strings;
 
+import me.tfeng.playmods.avro.SimpleJsonReader;
+import me.tfeng.playmods.avro.SimpleJsonWriter;
 import me.tfeng.toolbox.common.Constants;
 
 /**
@@ -44,11 +49,23 @@ public class AvroD2Helper {
 
   public static final String SCHEME = "avsd";
 
-  public static String createServerNode(ZooKeeper zk, Protocol protocol, URL serverUrl) throws InterruptedException,
-      KeeperException {
+  private static final SimpleJsonReader SERVER_NODE_READER = new SimpleJsonReader(SpecificData.get());
+
+  private static final SimpleJsonWriter SERVER_NODE_WRITER = new SimpleJsonWriter(SpecificData.get());
+
+  public static String createServerNode(ZooKeeper zk, Protocol protocol, ServerNode serverNode,
+      boolean publishMetadata) throws InterruptedException, IOException, KeeperException {
+    byte[] data;
+    if (publishMetadata) {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      SERVER_NODE_WRITER.write(ServerNode.getClassSchema(), serverNode, outputStream);
+      data = outputStream.toByteArray();
+    } else {
+      // Clients of earlier versions can only read bare URLs.
+      data = serverNode.getUrl().toString().getBytes(Constants.UTF8);
+    }
     ensurePath(zk, getServersZkPath(protocol));
-    return zk.create(getServersZkPath(protocol) + "/", serverUrl.toString().getBytes(), Ids.READ_ACL_UNSAFE,
-        CreateMode.EPHEMERAL_SEQUENTIAL);
+    return zk.create(getServersZkPath(protocol) + "/", data, Ids.READ_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
   }
 
   public static void createVersionNode(ZooKeeper zk, Protocol protocol) throws KeeperException, InterruptedException {
@@ -78,8 +95,12 @@ public class AvroD2Helper {
     }
   }
 
+  public static String getFullName(Protocol protocol) {
+    return getFullName(protocol.getNamespace(), protocol.getName());
+  }
+
   public static String getProtocolZkPath(String namespace, String name) {
-    return "/protocols/" + (Strings.isNullOrEmpty(namespace) ? name : namespace + "." + name);
+    return "/protocols/" + getFullName(namespace, name);
   }
 
   public static String getServersZkPath(Protocol protocol) {
@@ -105,4 +126,18 @@ public class AvroD2Helper {
     String schema = new String(data, Constants.UTF8);
     return Protocol.parse(schema);
   }
+
+  public static ServerNode readServerNode(byte[] data) throws IOException {
+    String content = new String(data, Constants.UTF8).trim();
+    if (content.startsWith("{")) {
+      return (ServerNode) SERVER_NODE_READER.read(ServerNode.getClassSchema(), new ByteArrayInputStream(data));
+    } else {
+      // Servers of earlier versions publish bare URLs.
+      return ServerNode.newBuilder().setUrl(content).build();
+    }
+  }
+
+  private static String getFullName(String namespace, String name) {
+    return Strings.isNullOrEmpty(namespace) ? name : namespace + "." + name;
+  }
 }
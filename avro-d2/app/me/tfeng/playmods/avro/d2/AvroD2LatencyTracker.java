@@ -0,0 +1,67 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro.d2;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class AvroD2LatencyTracker {
+
+  private static final int UPDATE_INTERVAL = 64;
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final double percentile;
+
+  private volatile long percentileLatency = -1;
+
+  private final AtomicLongArray samples;
+
+  public AvroD2LatencyTracker(int size, double percentile) {
+    samples = new AtomicLongArray(size);
+    this.percentile = percentile;
+  }
+
+  public long getPercentileLatency() {
+    return percentileLatency;
+  }
+
+  public void record(long latency) {
+    long index = count.getAndIncrement();
+    samples.set((int) (index % samples.length()), latency);
+    if ((index + 1) % UPDATE_INTERVAL == 0) {
+      updatePercentileLatency((int) Math.min(index + 1, samples.length()));
+    }
+  }
+
+  private void updatePercentileLatency(int size) {
+    long[] sorted = new long[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = samples.get(i);
+    }
+    Arrays.sort(sorted);
+    percentileLatency = sorted[Math.max(Math.min((int) Math.ceil(percentile * size) - 1, size - 1), 0)];
+  }
+}
@@ -32,7 +32,6 @@ import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Protocol;
 import org.apache.avro.Schema;
 import org.apache.avro.io.BinaryDecoder;
-import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.ipc.AsyncRequestor;
 import org.apache.avro.ipc.AsyncRequestor.Request;
 import org.apache.avro.ipc.HandshakeMatch;
@@ -48,6 +47,7 @@ import org.springframework.stereotype.Component;
 import com.google.common.collect.Maps;
 
 import me.tfeng.playmods.avro.AvroConstants;
+import me.tfeng.playmods.avro.IpcHelper;
 import me.tfeng.playmods.avro.ResponseProcessor;
 import me.tfeng.toolbox.avro.AvroHelper;
 import me.tfeng.toolbox.spring.BeanUtils;
@@ -72,7 +72,7 @@ public class AvroD2ResponseProcessor implements ResponseProcessor {
   public Object process(AsyncRequestor requestor, Request request, String message, List<ByteBuffer> response)
       throws Exception {
     ByteBufferInputStream bbi = new ByteBufferInputStream(response);
-    BinaryDecoder in = DecoderFactory.get().binaryDecoder(bbi, null);
+    BinaryDecoder in = IpcHelper.binaryDecoder(bbi);
 
     HandshakeResponse handshake = AvroConstants.HANDSHAKE_RESPONSE_READER.read(null, in);
     Protocol localProtocol = requestor.getLocal();
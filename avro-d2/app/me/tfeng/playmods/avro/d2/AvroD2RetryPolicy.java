@@ -0,0 +1,105 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro.d2;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.avro.Protocol;
+import org.apache.avro.Protocol.Message;
+
+import com.google.common.collect.ImmutableSet;
+
+import me.tfeng.playmods.spring.ApplicationError;
+import me.tfeng.playmods.spring.ExceptionWrapper;
+import play.mvc.Http;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class AvroD2RetryPolicy {
+
+  public static final String IDEMPOTENT_PROP = "idempotent";
+
+  private static final Set<Integer> RETRIABLE_STATUSES =
+      ImmutableSet.of(Http.Status.BAD_GATEWAY, Http.Status.SERVICE_UNAVAILABLE, Http.Status.GATEWAY_TIMEOUT);
+
+  private final double budgetMaxTokens;
+
+  private final double budgetRatio;
+
+  private final Set<String> idempotentMessages;
+
+  private final int maxRetries;
+
+  public AvroD2RetryPolicy(Set<String> idempotentMessages, int maxRetries, double budgetRatio,
+      double budgetMaxTokens) {
+    this.idempotentMessages = idempotentMessages;
+    this.maxRetries = maxRetries;
+    this.budgetRatio = budgetRatio;
+    this.budgetMaxTokens = budgetMaxTokens;
+  }
+
+  public double getBudgetMaxTokens() {
+    return budgetMaxTokens;
+  }
+
+  public double getBudgetRatio() {
+    return budgetRatio;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public boolean isIdempotent(Protocol protocol, Message message) {
+    return Boolean.TRUE.equals(message.getObjectProp(IDEMPOTENT_PROP))
+        || idempotentMessages.contains(AvroD2Helper.getFullName(protocol) + "." + message.getName());
+  }
+
+  public boolean isRetriable(Throwable error, boolean idempotent) {
+    Throwable cause = ExceptionWrapper.unwrap(error);
+    if (isConnectionFailure(cause)) {
+      // The request has never reached the server, so it is safe to send it elsewhere.
+      return true;
+    } else if (!idempotent) {
+      return false;
+    } else if (cause instanceof ApplicationError) {
+      return RETRIABLE_STATUSES.contains(((ApplicationError) cause).getStatus());
+    } else {
+      return cause instanceof IOException || cause instanceof TimeoutException;
+    }
+  }
+
+  private boolean isConnectionFailure(Throwable t) {
+    while (t != null) {
+      if (t instanceof ConnectException || t instanceof NoRouteToHostException || t instanceof UnknownHostException) {
+        return true;
+      }
+      t = t.getCause();
+    }
+    return false;
+  }
+}
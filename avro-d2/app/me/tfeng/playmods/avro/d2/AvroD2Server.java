@@ -48,18 +48,24 @@ public class AvroD2Server implements Watcher {
 
   private final Protocol protocol;
 
+  private final boolean publishMetadata;
+
   private final ScheduledExecutorService scheduler;
 
+  private final ServerNode serverNode;
+
   private final long serverRegisterRetryDelay;
 
   private final URL url;
 
   private final ZooKeeper zk;
 
-  public AvroD2Server(Protocol protocol, URL url, ZooKeeper zk, ScheduledExecutorService scheduler,
-      long serverRegisterRetryDelay) {
+  public AvroD2Server(Protocol protocol, URL url, ServerNode serverNode, boolean publishMetadata, ZooKeeper zk,
+      ScheduledExecutorService scheduler, long serverRegisterRetryDelay) {
     this.protocol = protocol;
     this.url = url;
+    this.serverNode = serverNode;
+    this.publishMetadata = publishMetadata;
     this.zk = zk;
     this.scheduler = scheduler;
     this.serverRegisterRetryDelay = serverRegisterRetryDelay;
@@ -82,6 +88,10 @@ public class AvroD2Server implements Watcher {
     return protocol;
   }
 
+  public ServerNode getServerNode() {
+    return serverNode;
+  }
+
   public URL getUrl() {
     return url;
   }
@@ -106,7 +116,7 @@ public class AvroD2Server implements Watcher {
         LOG.warn("ZooKeeper connection is closed; canceling registration for " + protocol.getName());
       } else {
         AvroD2Helper.createVersionNode(zk, protocol);
-        nodePath = AvroD2Helper.createServerNode(zk, protocol, url);
+        nodePath = AvroD2Helper.createServerNode(zk, protocol, serverNode, publishMetadata);
         zk.getData(nodePath, this, null);
         LOG.info("Registered server for " + protocol.getName() + " at " + url);
       }
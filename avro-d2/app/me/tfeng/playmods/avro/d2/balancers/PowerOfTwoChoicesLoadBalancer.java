@@ -0,0 +1,53 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro.d2.balancers;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import me.tfeng.playmods.avro.d2.AvroD2Endpoint;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class PowerOfTwoChoicesLoadBalancer implements LoadBalancer {
+
+  @Override
+  public AvroD2Endpoint select(List<AvroD2Endpoint> endpoints) {
+    int size = endpoints.size();
+    if (size == 1) {
+      return endpoints.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+    AvroD2Endpoint firstEndpoint = endpoints.get(first);
+    AvroD2Endpoint secondEndpoint = endpoints.get(second);
+    return getLoad(secondEndpoint) < getLoad(firstEndpoint) ? secondEndpoint : firstEndpoint;
+  }
+
+  protected double getLoad(AvroD2Endpoint endpoint) {
+    return endpoint.getOutstanding();
+  }
+}
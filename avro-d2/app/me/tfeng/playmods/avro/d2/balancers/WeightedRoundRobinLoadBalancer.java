@@ -0,0 +1,95 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro.d2.balancers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.tfeng.playmods.avro.d2.AvroD2Endpoint;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class WeightedRoundRobinLoadBalancer implements LoadBalancer {
+
+  private static class Schedule {
+
+    private final long[] cumulativeWeights;
+
+    private final List<AvroD2Endpoint> endpoints;
+
+    private final long totalWeight;
+
+    Schedule(List<AvroD2Endpoint> endpoints) {
+      this.endpoints = endpoints;
+      cumulativeWeights = new long[endpoints.size()];
+      long total = 0;
+      for (int i = 0; i < cumulativeWeights.length; i++) {
+        total += Math.max(endpoints.get(i).getWeight(), 0);
+        cumulativeWeights[i] = total;
+      }
+      totalWeight = total;
+    }
+
+    // Callers may pass a newly filtered list on every call, so schedules are matched by content. An endpoint's weight
+    // never changes, because endpoints are recreated when servers publish new metadata.
+    boolean matches(List<AvroD2Endpoint> endpoints) {
+      if (this.endpoints == endpoints) {
+        return true;
+      } else if (this.endpoints.size() != endpoints.size()) {
+        return false;
+      }
+      for (int i = 0; i < endpoints.size(); i++) {
+        if (this.endpoints.get(i) != endpoints.get(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private final AtomicLong cursor = new AtomicLong();
+
+  private volatile Schedule schedule;
+
+  @Override
+  public AvroD2Endpoint select(List<AvroD2Endpoint> endpoints) {
+    Schedule currentSchedule = schedule;
+    if (currentSchedule == null || !currentSchedule.matches(endpoints)) {
+      currentSchedule = new Schedule(endpoints);
+      schedule = currentSchedule;
+    }
+
+    if (currentSchedule.totalWeight == 0) {
+      return endpoints.get((int) Math.floorMod(cursor.getAndIncrement(), (long) endpoints.size()));
+    }
+    long position = Math.floorMod(cursor.getAndIncrement(), currentSchedule.totalWeight);
+    int index = Arrays.binarySearch(currentSchedule.cumulativeWeights, position);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    while (currentSchedule.cumulativeWeights[index] <= position) {
+      index++;
+    }
+    return endpoints.get(index);
+  }
+}
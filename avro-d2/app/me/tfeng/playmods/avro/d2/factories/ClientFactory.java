@@ -26,6 +26,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import me.tfeng.playmods.avro.AvroComponent;
 import me.tfeng.playmods.avro.d2.AvroD2Client;
 import me.tfeng.playmods.avro.d2.AvroD2Component;
 import me.tfeng.toolbox.avro.AvroHelper;
@@ -36,10 +37,18 @@ import me.tfeng.toolbox.avro.AvroHelper;
 @Component("play-mods.avro-d2.client-factory")
 public class ClientFactory {
 
+  @Autowired
+  @Qualifier("play-mods.avro.component")
+  private AvroComponent avroComponent;
+
   @Autowired
   @Qualifier("play-mods.avro-d2.component")
   private AvroD2Component avroD2Component;
 
+  @Autowired
+  @Qualifier("play-mods.avro-d2.load-balancer-factory")
+  private LoadBalancerFactory loadBalancerFactory;
+
   @Autowired
   @Qualifier("play-mods.avro-d2.requestor-factory")
   private RequestorFactory requestorFactory;
@@ -54,6 +63,10 @@ public class ClientFactory {
 
   public AvroD2Client create(Protocol protocol, SpecificData data, boolean useGenericRecord) {
     return new AvroD2Client(protocol, data, requestorFactory, transceiverFactory, avroD2Component,
-        avroD2Component.getScheduler(), avroD2Component.getClientRefreshRetryDelay(), useGenericRecord);
+        avroD2Component.getScheduler(), avroD2Component.getClientRefreshJitter(),
+        avroD2Component.getClientRefreshRetryDelay(), useGenericRecord, loadBalancerFactory.create(protocol),
+        avroD2Component.getLatencyDecayTime(), avroD2Component.getEjectionPolicy(),
+        avroD2Component.getHedgingPolicy(), avroD2Component.getHedgingScheduler(), avroComponent.getBaseExecutor(),
+        avroD2Component.getRetryPolicy(), avroD2Component.getZone());
   }
 }
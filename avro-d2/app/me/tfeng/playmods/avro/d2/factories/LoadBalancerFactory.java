@@ -0,0 +1,93 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro.d2.factories;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.avro.Protocol;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import me.tfeng.playmods.avro.d2.AvroD2Helper;
+import me.tfeng.playmods.avro.d2.balancers.LoadBalancer;
+import me.tfeng.playmods.avro.d2.balancers.PeakEwmaLoadBalancer;
+import me.tfeng.playmods.avro.d2.balancers.PowerOfTwoChoicesLoadBalancer;
+import me.tfeng.playmods.avro.d2.balancers.RoundRobinLoadBalancer;
+import me.tfeng.playmods.avro.d2.balancers.WeightedRoundRobinLoadBalancer;
+import me.tfeng.toolbox.spring.ApplicationManager;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+@Component("play-mods.avro-d2.load-balancer-factory")
+public class LoadBalancerFactory implements InitializingBean {
+
+  public static final String PEAK_EWMA = "peak-ewma";
+
+  public static final String POWER_OF_TWO_CHOICES = "power-of-two-choices";
+
+  public static final String PROTOCOL_LOAD_BALANCERS_KEY = "play-mods.avro-d2.protocol-load-balancers";
+
+  public static final String ROUND_ROBIN = "round-robin";
+
+  public static final String WEIGHTED_ROUND_ROBIN = "weighted-round-robin";
+
+  @Autowired
+  @Qualifier("play-mods.spring.application-manager")
+  private ApplicationManager applicationManager;
+
+  @Value("${play-mods.avro-d2.load-balancer:" + ROUND_ROBIN + "}")
+  private String defaultLoadBalancer;
+
+  private Map<String, String> protocolLoadBalancers;
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void afterPropertiesSet() throws Exception {
+    try {
+      protocolLoadBalancers = applicationManager.getBean(PROTOCOL_LOAD_BALANCERS_KEY, Map.class);
+    } catch (NoSuchBeanDefinitionException e) {
+      protocolLoadBalancers = Collections.emptyMap();
+    }
+  }
+
+  public LoadBalancer create(Protocol protocol) {
+    String fullName = AvroD2Helper.getFullName(protocol);
+    String name = protocolLoadBalancers.getOrDefault(fullName, defaultLoadBalancer);
+    switch (name) {
+    case PEAK_EWMA:
+      return new PeakEwmaLoadBalancer();
+    case POWER_OF_TWO_CHOICES:
+      return new PowerOfTwoChoicesLoadBalancer();
+    case ROUND_ROBIN:
+      return new RoundRobinLoadBalancer();
+    case WEIGHTED_ROUND_ROBIN:
+      return new WeightedRoundRobinLoadBalancer();
+    default:
+      throw new IllegalArgumentException("Unknown load balancer " + name + " for protocol " + fullName);
+    }
+  }
+}
@@ -32,6 +32,7 @@ import org.springframework.stereotype.Component;
 import me.tfeng.playmods.avro.AuthorizationPreservingRequestPreparer;
 import me.tfeng.playmods.avro.ResponseProcessor;
 import me.tfeng.playmods.avro.d2.AvroD2Transceiver;
+import me.tfeng.playmods.http.RequestPreparer;
 import me.tfeng.playmods.http.factories.ClientConfigFactory;
 
 /**
@@ -40,6 +41,8 @@ import me.tfeng.playmods.http.factories.ClientConfigFactory;
 @Component("play-mods.avro-d2.requestor-factory")
 public class RequestorFactory {
 
+  private static final RequestPreparer NO_OP_REQUEST_PREPARER = (request, contentType, url) -> { };
+
   @Autowired
   @Qualifier("play-mods.http.client-config-factory")
   private ClientConfigFactory clientConfigFactory;
@@ -50,7 +53,16 @@ public class RequestorFactory {
 
   public AsyncRequestor create(Protocol protocol, AvroD2Transceiver transceiver, SpecificData data,
       boolean useGenericRecord) throws IOException {
-    return new AsyncRequestor(protocol, transceiver, data, clientConfigFactory.create().getRequestTimeout(),
-        new AuthorizationPreservingRequestPreparer(), responseProcessor, useGenericRecord);
+    // Requestors are shared by all requests to a server, so callers pass a preparer created for each call.
+    return new AsyncRequestor(protocol, transceiver, data, getRequestTimeout(), NO_OP_REQUEST_PREPARER,
+        responseProcessor, useGenericRecord);
+  }
+
+  public RequestPreparer createRequestPreparer() {
+    return new AuthorizationPreservingRequestPreparer();
+  }
+
+  public int getRequestTimeout() {
+    return clientConfigFactory.create().getRequestTimeout();
   }
 }
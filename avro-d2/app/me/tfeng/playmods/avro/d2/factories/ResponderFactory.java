@@ -45,11 +45,11 @@ public class ResponderFactory {
   private AvroD2ProtocolVersionResolver protocolVersionResolver;
 
   public AsyncResponder create(Class<?> iface, Object impl) {
-    return new AsyncResponder(iface, impl, avroComponent.getExecutor(), protocolVersionResolver);
+    return new AsyncResponder(iface, impl, avroComponent.getExecutor(iface), protocolVersionResolver);
   }
 
   public AsyncResponder create(Class<?> iface, Object impl, SpecificData data) {
-    return new AsyncResponder(iface, impl, data, avroComponent.getExecutor(), protocolVersionResolver);
+    return new AsyncResponder(iface, impl, data, avroComponent.getExecutor(iface), protocolVersionResolver);
   }
 
   public AsyncResponder create(Protocol protocol, Object impl) {
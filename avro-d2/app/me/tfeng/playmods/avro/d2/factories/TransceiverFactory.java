@@ -46,6 +46,6 @@ public class TransceiverFactory {
   private HttpRequestPoster requestPoster;
 
   public AvroD2Transceiver create(Protocol protocol, URL url) {
-    return new AvroD2Transceiver(protocol, url, avroComponent.getExecutor(), requestPoster);
+    return new AvroD2Transceiver(protocol, url, avroComponent.getBaseExecutor(), requestPoster);
   }
 }
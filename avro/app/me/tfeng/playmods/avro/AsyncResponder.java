@@ -21,20 +21,34 @@
 package me.tfeng.playmods.avro;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Protocol;
 import org.apache.avro.Protocol.Message;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.Decoder;
-import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.Encoder;
-import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.ipc.RPCContext;
 import org.apache.avro.ipc.RPCContextHelper;
 import org.apache.avro.ipc.RPCPlugin;
@@ -42,21 +56,84 @@ import org.apache.avro.ipc.Transceiver;
 import org.apache.avro.ipc.specific.SpecificResponder;
 import org.apache.avro.specific.SpecificData;
 import org.apache.avro.util.ByteBufferInputStream;
-import org.apache.avro.util.ByteBufferOutputStream;
+import org.apache.avro.util.Utf8;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import akka.stream.javadsl.Source;
+import me.tfeng.playmods.spring.ApplicationError;
 import me.tfeng.playmods.spring.ExceptionWrapper;
+import play.libs.concurrent.HttpExecution;
+import play.mvc.Http;
 
 /**
  * @author Thomas Feng (huining.feng@gmail.com)
  */
 public class AsyncResponder extends SpecificResponder {
 
+  public static class DecodedRequest {
+
+    private final PooledByteBufferOutputStream bbo;
+
+    private final RPCContext context;
+
+    private final List<ByteBuffer> handshake;
+
+    private final Message message;
+
+    private final Object request;
+
+    private final List<ByteBuffer> response;
+
+    DecodedRequest(List<ByteBuffer> response) {
+      this(null, null, null, null, null, response);
+    }
+
+    DecodedRequest(PooledByteBufferOutputStream bbo, RPCContext context, Message message, List<ByteBuffer> handshake,
+        Object request) {
+      this(bbo, context, message, handshake, request, null);
+    }
+
+    private DecodedRequest(PooledByteBufferOutputStream bbo, RPCContext context, Message message,
+        List<ByteBuffer> handshake, Object request, List<ByteBuffer> response) {
+      this.bbo = bbo;
+      this.context = context;
+      this.message = message;
+      this.handshake = handshake;
+      this.request = request;
+      this.response = response;
+    }
+
+    public Message getMessage() {
+      return message;
+    }
+  }
+
+  private static class Invoker {
+
+    private final MethodHandle handle;
+
+    private final Method method;
+
+    Invoker(Method method, MethodHandle handle) {
+      this.method = method;
+      this.handle = handle;
+    }
+  }
+
+  private final DatumCache datumCache = new DatumCache();
+
   private final Executor executor;
 
   private final Object impl;
 
+  private final Set<String> inlineMessages;
+
+  private final Map<String, Invoker> invokers;
+
   private final ProtocolVersionResolver protocolVersionResolver;
 
   public AsyncResponder(Class<?> iface, Object impl, Executor executor,
@@ -64,6 +141,8 @@ public class AsyncResponder extends SpecificResponder {
     super(iface, impl);
     this.impl = impl;
     this.executor = executor;
+    inlineMessages = getInlineMessages(impl);
+    invokers = createInvokers(impl);
     this.protocolVersionResolver = protocolVersionResolver;
   }
 
@@ -72,6 +151,8 @@ public class AsyncResponder extends SpecificResponder {
     super(iface, impl, data);
     this.impl = impl;
     this.executor = executor;
+    inlineMessages = getInlineMessages(impl);
+    invokers = createInvokers(impl);
     this.protocolVersionResolver = protocolVersionResolver;
   }
 
@@ -80,6 +161,8 @@ public class AsyncResponder extends SpecificResponder {
     super(protocol, impl);
     this.impl = impl;
     this.executor = executor;
+    inlineMessages = getInlineMessages(impl);
+    invokers = createInvokers(impl);
     this.protocolVersionResolver = protocolVersionResolver;
   }
 
@@ -88,20 +171,90 @@ public class AsyncResponder extends SpecificResponder {
     super(protocol, impl, data);
     this.impl = impl;
     this.executor = executor;
+    inlineMessages = getInlineMessages(impl);
+    invokers = createInvokers(impl);
     this.protocolVersionResolver = protocolVersionResolver;
   }
 
   public CompletionStage<List<ByteBuffer>> asyncRespond(List<ByteBuffer> buffers) throws Exception {
-    Decoder in = DecoderFactory.get().binaryDecoder(new ByteBufferInputStream(buffers), null);
-    ByteBufferOutputStream bbo = new ByteBufferOutputStream();
-    BinaryEncoder out = EncoderFactory.get().binaryEncoder(bbo, null);
+    return asyncRespond(decodeRequest(buffers));
+  }
+
+  public CompletionStage<List<ByteBuffer>> asyncRespond(DecodedRequest decodedRequest) throws Exception {
+    if (decodedRequest.response != null) {
+      return CompletableFuture.completedFuture(decodedRequest.response);
+    }
+
+    PooledByteBufferOutputStream bbo = decodedRequest.bbo;
+    RPCContext context = decodedRequest.context;
+    Message m = decodedRequest.message;
+    List<ByteBuffer> handshake = decodedRequest.handshake;
+    for (RPCPlugin plugin : rpcMetaPlugins) {
+      plugin.serverReceiveRequest(context);
+    }
+
+    CompletionStage<Object> completionStage = invoke(m, decodedRequest.request);
+    return completionStage
+        .thenApply(result -> {
+          if (m.getResponse().getType() == Schema.Type.ARRAY) {
+            result = toCollection(result);
+          }
+          RPCContextHelper.setResponse(context, result);
+          try {
+            processResult(bbo, context, m, handshake, result, null);
+          } catch (Throwable t) {
+            throw ExceptionWrapper.wrap(t);
+          }
+          return bbo.getBufferList();
+        })
+        .exceptionally(t -> {
+          t = ExceptionWrapper.unwrap(t);
+          RPCContextHelper.setError(context, (Exception) t);
+          try {
+            processResult(bbo, context, m, handshake, null, (Exception) t);
+          } catch (Throwable t2) {
+            throw ExceptionWrapper.wrap(t2);
+          }
+          return bbo.getBufferList();
+        });
+  }
+
+  public List<ByteBuffer> createSystemErrorResponse(DecodedRequest decodedRequest, Throwable error)
+      throws IOException {
+    if (decodedRequest.response != null) {
+      return decodedRequest.response;
+    }
+
+    PooledByteBufferOutputStream bbo = new PooledByteBufferOutputStream();
+    BinaryEncoder out = IpcHelper.binaryEncoder(bbo);
+    AvroConstants.META_WRITER.write(decodedRequest.context.responseCallMeta(), out);
+    out.writeBoolean(true);
+    writeError(Protocol.SYSTEM_ERRORS, new Utf8(ExceptionWrapper.unwrap(error).toString()), out);
+    out.flush();
+    bbo.prepend(decodedRequest.handshake);
+    return bbo.getBufferList();
+  }
+
+  public DecodedRequest decodeRequest(List<ByteBuffer> buffers) throws Exception {
+    Decoder in = IpcHelper.binaryDecoder(new ByteBufferInputStream(buffers));
+    PooledByteBufferOutputStream bbo = new PooledByteBufferOutputStream();
+    BinaryEncoder out = IpcHelper.binaryEncoder(bbo);
     RPCContext context = new RPCContext();
     List<ByteBuffer> handshake;
-    Protocol remote = handshake(in, out, null);
+    Protocol remote;
+    int bothRequestLength =
+        rpcMetaPlugins.isEmpty() ? HandshakeFrames.getBothRequestLength(buffers, getLocal().getMD5()) : -1;
+    if (bothRequestLength > 0) {
+      in.skipFixed(bothRequestLength);
+      out.writeFixed(HandshakeFrames.BOTH_RESPONSE);
+      remote = getLocal();
+    } else {
+      remote = handshake(in, out, null);
+    }
     out.flush();
     if (remote == null) {
       // handshake failed
-      return CompletableFuture.completedFuture(bbo.getBufferList());
+      return new DecodedRequest(bbo.getBufferList());
     }
     handshake = bbo.getBufferList();
 
@@ -110,7 +263,7 @@ public class AsyncResponder extends SpecificResponder {
     String messageName = in.readString(null).toString();
     if (messageName.equals("")) {
       // a handshake ping
-      return CompletableFuture.completedFuture(handshake);
+      return new DecodedRequest(handshake);
     }
     Message rm = remote.getMessages().get(messageName);
     if (rm == null) {
@@ -122,65 +275,126 @@ public class AsyncResponder extends SpecificResponder {
     }
 
     Object request = readRequest(rm.getRequest(), m.getRequest(), in);
-
     context.setMessage(rm);
-    for (RPCPlugin plugin : rpcMetaPlugins) {
-      plugin.serverReceiveRequest(context);
-    }
+    return new DecodedRequest(bbo, context, m, handshake, request);
+  }
+
+  public Method getImplementationMethod(Message message) {
+    Invoker invoker = invokers.get(message.getName());
+    return invoker == null ? null : invoker.method;
+  }
 
-    List<ByteBuffer> handshakeFinal = handshake;
-    CompletionStage<Object> completionStage;
-    if (impl.getClass().getAnnotation(AvroClient.class) != null) {
-      completionStage = (CompletionStage<Object>) respond(m, request);
+  public List<RPCPlugin> getRPCPlugins() {
+    return Collections.unmodifiableList(rpcMetaPlugins);
+  }
+
+  public CompletionStage<Object> invoke(Message message, Object request) {
+    if (inlineMessages.contains(message.getName())) {
+      try {
+        return toCompletionStage(respond(message, request));
+      } catch (Exception e) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+      }
     } else {
       Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-      completionStage = CompletableFuture
-          .supplyAsync(() -> {
-            SecurityContextHolder.getContext().setAuthentication(authentication);
-            try {
-              return respond(m, request);
-            } catch (Throwable t) {
-              throw ExceptionWrapper.wrap(t);
-            } finally{
-              SecurityContextHolder.clearContext();
-            }
-          }, executor)
-          .thenCompose(result -> {
-            if (result instanceof CompletionStage) {
-              return (CompletionStage<Object>) result;
-            } else {
-              return CompletableFuture.completedFuture(result);
-            }
-          });
+      try {
+        return CompletableFuture
+            .supplyAsync(() -> {
+              SecurityContextHolder.getContext().setAuthentication(authentication);
+              try {
+                return respond(message, request);
+              } catch (Throwable t) {
+                throw ExceptionWrapper.wrap(t);
+              } finally{
+                SecurityContextHolder.clearContext();
+              }
+            }, HttpExecution.fromThread(executor))
+            .thenCompose(this::toCompletionStage);
+      } catch (RejectedExecutionException e) {
+        throw new ApplicationError(Http.Status.SERVICE_UNAVAILABLE, "Too many pending requests for message "
+            + message.getName() + " in " + getLocal().getName(), e);
+      }
+    }
+  }
+
+  @Override
+  public Object respond(Message message, Object request) throws Exception {
+    Invoker invoker = invokers.get(message.getName());
+    if (invoker == null) {
+      return super.respond(message, request);
+    }
+
+    List<Schema.Field> fields = message.getRequest().getFields();
+    Object[] params = new Object[fields.size()];
+    for (int i = 0; i < params.length; i++) {
+      params[i] = ((GenericRecord) request).get(fields.get(i).pos());
+    }
+    try {
+      return invoker.handle.invoke(params);
+    } catch (Exception e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new Exception(t);
     }
-    return completionStage
-        .thenApply(result -> {
-          RPCContextHelper.setResponse(context, result);
-          try {
-            processResult(bbo, out, context, m, handshakeFinal, result, null);
-          } catch (Throwable t) {
-            throw ExceptionWrapper.wrap(t);
-          }
-          return bbo.getBufferList();
-        })
-        .exceptionally(t -> {
-          t = ExceptionWrapper.unwrap(t);
-          RPCContextHelper.setError(context, (Exception) t);
-          try {
-            processResult(bbo, out, context, m, handshakeFinal, null, (Exception) t);
-          } catch (Throwable t2) {
-            throw ExceptionWrapper.wrap(t2);
-          }
-          return bbo.getBufferList();
-        });
+  }
+
+  @Override
+  protected DatumReader<Object> getDatumReader(Schema actual, Schema expected) {
+    return datumCache.getReader(actual, expected, super::getDatumReader);
+  }
+
+  @Override
+  protected DatumWriter<Object> getDatumWriter(Schema schema) {
+    return datumCache.getWriter(schema, super::getDatumWriter);
   }
 
   protected Protocol handshake(Decoder in, Encoder out, Transceiver connection) throws IOException {
     return protocolVersionResolver.resolve(this, in, out, connection);
   }
 
-  private void processResult(ByteBufferOutputStream bbo, BinaryEncoder out, RPCContext context, Message m,
+  private Map<String, Invoker> createInvokers(Object impl) {
+    if (impl == null) {
+      return Collections.emptyMap();
+    }
+    ImmutableMap.Builder<String, Invoker> builder = ImmutableMap.builder();
+    for (Message message : getLocal().getMessages().values()) {
+      List<Schema.Field> fields = message.getRequest().getFields();
+      Class<?>[] paramTypes = new Class<?>[fields.size()];
+      for (int i = 0; i < paramTypes.length; i++) {
+        paramTypes[i] = getSpecificData().getClass(fields.get(i).schema());
+      }
+      try {
+        Method method = impl.getClass().getMethod(message.getName(), paramTypes);
+        method.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflect(method)
+            .bindTo(impl)
+            .asType(MethodType.genericMethodType(paramTypes.length))
+            .asSpreader(Object[].class, paramTypes.length);
+        builder.put(message.getName(), new Invoker(method, handle));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        // Leave the message to SpecificResponder, which reports the error when the message is called.
+      }
+    }
+    return builder.build();
+  }
+
+  private static Set<String> getInlineMessages(Object impl) {
+    if (impl == null) {
+      return Collections.emptySet();
+    }
+    boolean isInlineType = impl.getClass().getAnnotation(AvroClient.class) != null
+        || impl.getClass().getAnnotation(AvroInline.class) != null;
+    return Arrays.stream(impl.getClass().getMethods())
+        .filter(method -> isInlineType || method.getAnnotation(AvroInline.class) != null)
+        .map(Method::getName)
+        .collect(Collectors.toSet());
+  }
+
+  private void processResult(PooledByteBufferOutputStream bbo, RPCContext context, Message m,
       List<ByteBuffer> handshake, Object response, Exception error) throws Exception {
+    BinaryEncoder out = IpcHelper.binaryEncoder(bbo);
     out.writeBoolean(error != null);
     if (error == null) {
       writeResponse(m.getResponse(), response, out);
@@ -205,4 +419,25 @@ public class AsyncResponder extends SpecificResponder {
     bbo.prepend(handshake);
     bbo.append(payload);
   }
+
+  private Object toCollection(Object result) {
+    if (result instanceof Iterator) {
+      return Lists.newArrayList((Iterator<?>) result);
+    } else if (result instanceof Iterable && !(result instanceof Collection)) {
+      return Lists.newArrayList((Iterable<?>) result);
+    } else if (result instanceof Source) {
+      throw new AvroRuntimeException("Streamed results are only supported by JSON IPC");
+    } else {
+      return result;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private CompletionStage<Object> toCompletionStage(Object result) {
+    if (result instanceof CompletionStage) {
+      return (CompletionStage<Object>) result;
+    } else {
+      return CompletableFuture.completedFuture(result);
+    }
+  }
 }
@@ -27,33 +27,43 @@ import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Protocol;
 import org.apache.avro.Schema;
 import org.apache.avro.io.BinaryDecoder;
-import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.ipc.AsyncRequestor;
 import org.apache.avro.ipc.AsyncRequestor.Request;
 import org.apache.avro.ipc.HandshakeMatch;
 import org.apache.avro.ipc.HandshakeResponse;
+import org.apache.avro.ipc.MD5;
 import org.apache.avro.ipc.RPCContext;
 import org.apache.avro.ipc.RPCContextHelper;
-import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.util.ByteBufferInputStream;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import me.tfeng.playmods.spring.ExceptionWrapper;
+
 /**
  * @author Thomas Feng (huining.feng@gmail.com)
  */
 public class AsyncResponseProcessor implements ResponseProcessor {
 
+  private static final int MAXIMUM_CACHED_PROTOCOLS = 1024;
+
+  // Server protocols by MD5, so that responses of the same server version resolve to the same schema objects.
+  private final Cache<MD5, Protocol> protocolCache =
+      CacheBuilder.newBuilder().maximumSize(MAXIMUM_CACHED_PROTOCOLS).build();
+
   @Override
   public Object process(AsyncRequestor requestor, Request request, String message, List<ByteBuffer> response)
       throws Exception {
     ByteBufferInputStream bbi = new ByteBufferInputStream(response);
-    BinaryDecoder in = DecoderFactory.get().binaryDecoder(bbi, null);
+    BinaryDecoder in = IpcHelper.binaryDecoder(bbi);
     HandshakeResponse handshake = AvroConstants.HANDSHAKE_RESPONSE_READER.read(null, in);
     Protocol localProtocol = requestor.getLocal();
     Protocol serverProtocol;
     if (handshake.getMatch() == HandshakeMatch.BOTH) {
       serverProtocol = localProtocol;
     } else {
-      serverProtocol = Protocol.parse(handshake.getServerProtocol());
+      serverProtocol = getServerProtocol(handshake);
     }
 
     RPCContext context = request.getContext();
@@ -62,14 +72,14 @@ public class AsyncResponseProcessor implements ResponseProcessor {
     if (!in.readBoolean()) {
       Schema localSchema = localProtocol.getMessages().get(message).getResponse();
       Schema remoteSchema = serverProtocol.getMessages().get(message).getResponse();
-      Object responseObject = new SpecificDatumReader<>(remoteSchema, localSchema).read(null, in);
+      Object responseObject = requestor.getDatumReader(remoteSchema, localSchema).read(null, in);
       RPCContextHelper.setResponse(context, responseObject);
       requestor.getRPCPlugins().forEach(plugin -> plugin.clientReceiveResponse(context));
       return responseObject;
     } else {
       Schema localSchema = localProtocol.getMessages().get(message).getErrors();
       Schema remoteSchema = serverProtocol.getMessages().get(message).getErrors();
-      Object error = new SpecificDatumReader<>(remoteSchema, localSchema).read(null, in);
+      Object error = requestor.getDatumReader(remoteSchema, localSchema).read(null, in);
       Exception exception;
       if (error instanceof Exception) {
         exception = (Exception) error;
@@ -81,4 +91,13 @@ public class AsyncResponseProcessor implements ResponseProcessor {
       throw exception;
     }
   }
+
+  private Protocol getServerProtocol(HandshakeResponse handshake) {
+    MD5 serverHash = handshake.getServerHash();
+    if (serverHash == null) {
+      return Protocol.parse(handshake.getServerProtocol());
+    }
+    return ExceptionWrapper.wrap(() -> protocolCache.get(serverHash,
+        () -> Protocol.parse(handshake.getServerProtocol())));
+  }
 }
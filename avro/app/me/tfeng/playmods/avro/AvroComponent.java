@@ -39,6 +39,7 @@ import com.google.inject.Inject;
 
 import akka.actor.ActorSystem;
 import me.tfeng.playmods.avro.factories.RequestorFactory;
+import me.tfeng.playmods.avro.factories.ResponderFactory;
 import me.tfeng.playmods.avro.factories.TransceiverFactory;
 import me.tfeng.toolbox.spring.ApplicationManager;
 import me.tfeng.toolbox.spring.Startable;
@@ -53,6 +54,8 @@ import scala.concurrent.ExecutionContext;
 @Component("play-mods.avro.component")
 public class AvroComponent implements Startable {
 
+  public static final String PROTOCOL_EXECUTORS_KEY = "play-mods.avro.protocol-executors";
+
   public static final String PROTOCOL_IMPLEMENTATIONS_KEY = "play-mods.avro.protocol-implementations";
 
   private static final ALogger LOG = Logger.of(AvroComponent.class);
@@ -69,12 +72,20 @@ public class AvroComponent implements Startable {
   @Value("${play-mods.avro.execution-context:akka.actor.default-dispatcher}")
   private String executionContextId;
 
+  private Map<Class<?>, Executor> protocolExecutors = Collections.emptyMap();
+
   private Map<Class<?>, Object> protocolImplementations = Collections.emptyMap();
 
   @Autowired
   @Qualifier("play-mods.avro.requestor-factory")
   private RequestorFactory requestorFactory;
 
+  @Autowired
+  @Qualifier("play-mods.avro.responder-factory")
+  private ResponderFactory responderFactory;
+
+  private ResponderRegistry responderRegistry;
+
   @Autowired
   @Qualifier("play-mods.avro.transceiver-factory")
   private TransceiverFactory transceiverFactory;
@@ -101,29 +112,53 @@ public class AvroComponent implements Startable {
     return client(interfaceClass, transceiverFactory.create(url), data);
   }
 
+  public Executor getBaseExecutor() {
+    // Unlike getExecutor(), this does not capture the HTTP context of the calling thread, so it can be held by objects
+    // that outlive the current request.
+    return executionContext::execute;
+  }
+
   public Executor getExecutor() {
     return HttpExecution.fromThread(executionContext);
   }
 
+  public Executor getExecutor(Class<?> protocolClass) {
+    Executor executor = protocolExecutors.get(protocolClass);
+    return executor == null ? getExecutor() : executor;
+  }
+
   public Map<Class<?>, Object> getProtocolImplementations() {
-    return protocolImplementations == null ? null : Collections.unmodifiableMap(protocolImplementations);
+    return protocolImplementations;
+  }
+
+  public ResponderRegistry getResponderRegistry() {
+    return responderRegistry;
   }
 
   @Override
   @SuppressWarnings({"unchecked"})
   public void onStart() throws ClassNotFoundException {
     try {
-      protocolImplementations = applicationManager.getBean(PROTOCOL_IMPLEMENTATIONS_KEY, Map.class);
+      protocolImplementations =
+          Collections.unmodifiableMap(applicationManager.getBean(PROTOCOL_IMPLEMENTATIONS_KEY, Map.class));
     } catch (NoSuchBeanDefinitionException e) {
       protocolImplementations = Collections.emptyMap();
     }
 
+    try {
+      protocolExecutors = Collections.unmodifiableMap(applicationManager.getBean(PROTOCOL_EXECUTORS_KEY, Map.class));
+    } catch (NoSuchBeanDefinitionException e) {
+      protocolExecutors = Collections.emptyMap();
+    }
+
     try {
       executionContext = actorSystem.dispatchers().lookup(executionContextId);
     } catch (Exception e) {
       LOG.warn("Unable to obtain execution context " + executionContextId + "; using default", e);
       executionContext = actorSystem.dispatchers().defaultGlobalDispatcher();
     }
+
+    responderRegistry = new ResponderRegistry(protocolImplementations, responderFactory::create);
   }
 
   @Override
@@ -34,6 +34,9 @@ public class AvroConstants {
   public static final SpecificDatumReader<HandshakeRequest> HANDSHAKE_REQUEST_READER =
       new SpecificDatumReader<>(HandshakeRequest.class);
 
+  public static final SpecificDatumWriter<HandshakeRequest> HANDSHAKE_REQUEST_WRITER =
+      new SpecificDatumWriter<>(HandshakeRequest.class);
+
   public static final SpecificDatumReader<HandshakeResponse> HANDSHAKE_RESPONSE_READER =
       new SpecificDatumReader<>(HandshakeResponse.class);
 
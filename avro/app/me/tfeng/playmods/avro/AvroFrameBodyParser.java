@@ -0,0 +1,140 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import com.google.inject.Inject;
+
+import akka.stream.javadsl.Sink;
+import akka.util.ByteString;
+import me.tfeng.playmods.spring.ApplicationError;
+import play.api.http.HttpConfiguration;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class AvroFrameBodyParser implements BodyParser<List<ByteBuffer>> {
+
+  private static class FrameDecoder {
+
+    private boolean complete;
+
+    private ApplicationError error;
+
+    private int frameLength = -1;
+
+    private final List<ByteBuffer> frames = new ArrayList<>();
+
+    private final long maxLength;
+
+    private ByteString pending = ByteString.empty();
+
+    private long totalLength;
+
+    FrameDecoder(long maxLength) {
+      this.maxLength = maxLength;
+    }
+
+    FrameDecoder append(ByteString chunk) {
+      if (error != null) {
+        // The rest of the body is drained so that the error response can be sent.
+        return this;
+      }
+      totalLength += chunk.size();
+      if (totalLength > maxLength) {
+        error = new ApplicationError(Http.Status.REQUEST_ENTITY_TOO_LARGE,
+            "Request body exceeds maximum length " + maxLength);
+        return this;
+      }
+      if (complete) {
+        // Bytes after the terminating frame are ignored, as in HttpTransceiver.readBuffers.
+        return this;
+      }
+
+      pending = pending.concat(chunk);
+      while (!complete) {
+        if (frameLength < 0) {
+          if (pending.size() < 4) {
+            break;
+          }
+          frameLength = (pending.apply(0) & 0xff) << 24 | (pending.apply(1) & 0xff) << 16
+              | (pending.apply(2) & 0xff) << 8 | pending.apply(3) & 0xff;
+          pending = pending.drop(4);
+          if (frameLength < 0) {
+            error = new ApplicationError(Http.Status.BAD_REQUEST, "Invalid Avro frame length " + frameLength);
+            break;
+          } else if (frameLength > maxLength) {
+            error = new ApplicationError(Http.Status.REQUEST_ENTITY_TOO_LARGE,
+                "Avro frame length " + frameLength + " exceeds maximum length " + maxLength);
+            break;
+          } else if (frameLength == 0) {
+            complete = true;
+            pending = ByteString.empty();
+          }
+        } else if (pending.size() >= frameLength) {
+          // Wraps the chunk memory unless the frame spans several chunks.
+          frames.add(pending.take(frameLength).asByteBuffer());
+          pending = pending.drop(frameLength);
+          frameLength = -1;
+        } else {
+          break;
+        }
+      }
+      return this;
+    }
+
+    F.Either<Result, List<ByteBuffer>> getResult() {
+      if (error == null && !complete) {
+        error = new ApplicationError(Http.Status.BAD_REQUEST, "Request body ends before the terminating Avro frame");
+      }
+      if (error != null) {
+        return F.Either.Left(Results.status(error.getStatus(), error.getMessage()));
+      } else {
+        return F.Either.Right(frames);
+      }
+    }
+  }
+
+  private final long maxLength;
+
+  @Inject
+  public AvroFrameBodyParser(HttpConfiguration httpConfiguration) {
+    // The same limit as the raw body parser, which buffers large bodies to disk.
+    maxLength = httpConfiguration.parser().maxDiskBuffer();
+  }
+
+  @Override
+  public Accumulator<ByteString, F.Either<Result, List<ByteBuffer>>> apply(Http.RequestHeader request) {
+    Sink<ByteString, CompletionStage<FrameDecoder>> sink =
+        Sink.fold(new FrameDecoder(maxLength), FrameDecoder::append);
+    return Accumulator.fromSink(sink).map(FrameDecoder::getResult, Runnable::run);
+  }
+}
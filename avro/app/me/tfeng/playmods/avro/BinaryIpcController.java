@@ -20,26 +20,30 @@
 
 package me.tfeng.playmods.avro;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
 
-import org.apache.avro.ipc.AsyncHttpTransceiver;
+import org.apache.avro.AvroRuntimeException;
 import org.apache.http.entity.ContentType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import com.google.inject.Inject;
-
-import me.tfeng.playmods.avro.factories.ResponderFactory;
+import me.tfeng.playmods.avro.AsyncResponder.DecodedRequest;
+import me.tfeng.playmods.avro.ResponderRegistry.Route;
+import me.tfeng.playmods.spring.ApplicationError;
 import me.tfeng.playmods.spring.ExceptionWrapper;
-import play.Application;
 import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.Results;
 
@@ -49,58 +53,133 @@ import play.mvc.Results;
 @Component("play-mods.avro.binary-ipc-controller")
 public class BinaryIpcController extends Controller {
 
+  public static final String BATCH_CONTENT_TYPE = "avro/binary-batch";
+
   public static final String CONTENT_TYPE = "avro/binary";
 
   public static final String CONTENT_TYPE_HEADER = "content-type";
 
-  @Inject
-  private Application application;
-
   @Autowired
   @Qualifier("play-mods.avro.component")
   private AvroComponent avroComponent;
 
-  @Autowired
-  @Qualifier("play-mods.avro.responder-factory")
-  private ResponderFactory responderFactory;
+  @Value("${play-mods.avro.max-batch-size:100}")
+  private int maxBatchSize;
 
-  @BodyParser.Of(BodyParser.Raw.class)
+  @Value("${play-mods.avro.streaming-threshold:65536}")
+  private long streamingThreshold;
+
+  @BodyParser.Of(AvroFrameBodyParser.class)
+  @SuppressWarnings("unchecked")
   public CompletionStage<Result> post(String protocol) throws Throwable {
+    checkContentType(CONTENT_TYPE);
+    Route route = getRoute(protocol);
+    List<ByteBuffer> buffers = request().body().as(List.class);
+    CompletionStage<List<ByteBuffer>> response = route.getResponder().asyncRespond(buffers);
+
+    return response.thenApply(result -> createResult(Collections.singletonList(result)));
+  }
+
+  @BodyParser.Of(BodyParser.Raw.class)
+  public CompletionStage<Result> postBatch(String protocol) throws Throwable {
+    checkContentType(BATCH_CONTENT_TYPE);
+    Route route = getRoute(protocol);
+    AsyncResponder responder = route.getResponder();
+    ByteBuffer body = request().body().asRaw().asBytes().asByteBuffer();
+    int count = readInt(body);
+    if (count < 0 || count > maxBatchSize) {
+      throw new ApplicationError(Http.Status.BAD_REQUEST, "Batch size " + count + " is not between 0 and "
+          + maxBatchSize);
+    }
+
+    // All calls are decoded and validated before any is dispatched, so that a malformed batch has no side effects.
+    List<DecodedRequest> requests = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      List<ByteBuffer> buffers = readFrames(body);
+      try {
+        requests.add(responder.decodeRequest(buffers));
+      } catch (IOException | AvroRuntimeException e) {
+        throw new ApplicationError(Http.Status.BAD_REQUEST, "Unable to decode call " + i + " in batch", e);
+      }
+    }
+
+    // Once dispatching starts, a failed call is reported in its own slot, so that the results of the others are kept.
+    List<CompletableFuture<List<ByteBuffer>>> responses = new ArrayList<>(count);
+    for (DecodedRequest request : requests) {
+      CompletionStage<List<ByteBuffer>> response;
+      try {
+        response = responder.asyncRespond(request);
+      } catch (Exception e) {
+        response = CompletableFuture.completedFuture(responder.createSystemErrorResponse(request, e));
+      }
+      responses.add(response.toCompletableFuture().exceptionally(ExceptionWrapper.wrapFunction(error ->
+          responder.createSystemErrorResponse(request, error))));
+    }
+
+    return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[count])).thenApply(v ->
+        createResult(responses.stream().map(CompletableFuture::join).collect(Collectors.toList())));
+  }
+
+  protected ResponderRegistry getResponderRegistry() {
+    return avroComponent.getResponderRegistry();
+  }
+
+  private void checkContentType(String expectedContentType) {
     Optional<String> contentTypeHeader = request().contentType();
     if (contentTypeHeader.isPresent()) {
       ContentType contentType = ContentType.parse(contentTypeHeader.get());
-      if (!CONTENT_TYPE.equals(contentType.getMimeType())) {
-        throw new RuntimeException("Unable to handle content type " + contentType + "; " + CONTENT_TYPE
+      if (!expectedContentType.equals(contentType.getMimeType())) {
+        throw new RuntimeException("Unable to handle content type " + contentType + "; " + expectedContentType
             + " is expected");
       }
     } else {
-      throw new RuntimeException("Missing content type; " + CONTENT_TYPE + " is expected");
+      throw new RuntimeException("Missing content type; " + expectedContentType + " is expected");
+    }
+  }
+
+  private Result createResult(List<List<ByteBuffer>> results) {
+    List<ByteBuffer> frames = new ArrayList<>();
+    for (List<ByteBuffer> result : results) {
+      for (ByteBuffer buffer : result) {
+        frames.add(getLengthPrefix(buffer.remaining()));
+        frames.add(buffer);
+      }
+      frames.add(getLengthPrefix(0));
     }
+    return Results.ok().sendEntity(IpcHelper.createEntity(frames, streamingThreshold,
+        Optional.of(Http.MimeTypes.BINARY)));
+  }
 
-    Class<?> protocolClass = application.classloader().loadClass(protocol);
-    Object implementation = avroComponent.getProtocolImplementations().get(protocolClass);
-    InputStream inputStream = request().body().asRaw().asBytes().iterator().asInputStream();
-    List<ByteBuffer> buffers = AsyncHttpTransceiver.readBuffers(inputStream);
-    AsyncResponder responder = createResponder(protocolClass, implementation);
-    CompletionStage<List<ByteBuffer>> response = responder.asyncRespond(buffers);
+  private ByteBuffer getLengthPrefix(int length) {
+    return (ByteBuffer) ByteBuffer.allocate(4).putInt(length).flip();
+  }
 
-    return response.thenApply(result -> {
-      ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-      try {
-        AsyncHttpTransceiver.writeBuffers(result, outStream);
-      } catch (Throwable t) {
-        throw ExceptionWrapper.wrap(t);
-      } finally {
-        try {
-          outStream.close();
-        } catch (Exception e) {
-        }
+  private Route getRoute(String protocol) {
+    Route route = getResponderRegistry().getRoute(protocol);
+    if (route == null) {
+      throw new ApplicationError(Http.Status.NOT_FOUND, "No implementation is found for protocol " + protocol);
+    }
+    return route;
+  }
+
+  private List<ByteBuffer> readFrames(ByteBuffer body) {
+    List<ByteBuffer> frames = new ArrayList<>();
+    for (int length = readInt(body); length != 0; length = readInt(body)) {
+      if (length < 0 || length > body.remaining()) {
+        throw new ApplicationError(Http.Status.BAD_REQUEST, "Invalid Avro frame length " + length);
       }
-      return Results.ok(outStream.toByteArray());
-    });
+      ByteBuffer frame = body.slice();
+      frame.limit(length);
+      frames.add(frame);
+      body.position(body.position() + length);
+    }
+    return frames;
   }
 
-  protected AsyncResponder createResponder(Class<?> protocolClass, Object implementation) {
-    return responderFactory.create(protocolClass, implementation);
+  private int readInt(ByteBuffer body) {
+    if (body.remaining() < 4) {
+      throw new ApplicationError(Http.Status.BAD_REQUEST, "Request body ends unexpectedly");
+    }
+    return body.getInt();
   }
 }
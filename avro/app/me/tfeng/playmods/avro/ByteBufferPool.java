@@ -0,0 +1,87 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class ByteBufferPool {
+
+  public static final ByteBufferPool SHARED = new ByteBufferPool(8192, 1024);
+
+  // Whether each array created by this pool is currently borrowed. Keys are weak and compared by identity, so buffers
+  // that are never released are simply garbage collected, and buffers that did not come from this pool are never
+  // pooled. An entry is only created with a new array, so borrowing and releasing pooled buffers allocate nothing.
+  private final Map<byte[], AtomicBoolean> borrowed = new MapMaker().weakKeys().makeMap();
+
+  private final BlockingQueue<ByteBuffer> buffers;
+
+  private final int bufferSize;
+
+  public ByteBufferPool(int bufferSize, int maximumPooled) {
+    this.bufferSize = bufferSize;
+    buffers = new ArrayBlockingQueue<>(maximumPooled);
+  }
+
+  public ByteBuffer allocate() {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(bufferSize);
+      borrowed.put(buffer.array(), new AtomicBoolean(true));
+    } else {
+      borrowed.get(buffer.array()).set(true);
+    }
+    return buffer;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public void release(List<ByteBuffer> buffers) {
+    buffers.forEach(this::release);
+  }
+
+  public void release(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      AtomicBoolean isBorrowed = borrowed.get(buffer.array());
+      if (isBorrowed != null && isBorrowed.compareAndSet(true, false)) {
+        if (buffer.arrayOffset() != 0 || buffer.capacity() != bufferSize) {
+          buffer = ByteBuffer.wrap(buffer.array());
+        }
+        buffer.clear();
+        if (!buffers.offer(buffer)) {
+          // The pool is full; the array is left to the garbage collector.
+          borrowed.remove(buffer.array());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import me.tfeng.playmods.spring.ExceptionWrapper;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class DatumCache {
+
+  private static class SchemaPair {
+
+    private final Schema reader;
+
+    private final Schema writer;
+
+    SchemaPair(Schema writer, Schema reader) {
+      this.writer = writer;
+      this.reader = reader;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof SchemaPair)) {
+        return false;
+      }
+      SchemaPair pair = (SchemaPair) obj;
+      return writer == pair.writer && reader == pair.reader;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(writer) + System.identityHashCode(reader);
+    }
+  }
+
+  public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+  // Schemas are compared by identity. The cached readers and writers hold their schemas, so the number of entries is
+  // bounded by size only.
+  private final Cache<SchemaPair, DatumReader<Object>> readers;
+
+  private final Cache<Schema, DatumWriter<Object>> writers;
+
+  public DatumCache() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  public DatumCache(int maximumSize) {
+    readers = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    writers = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+  }
+
+  public DatumReader<Object> getReader(Schema writer, Schema reader,
+      BiFunction<Schema, Schema, DatumReader<Object>> creator) {
+    return ExceptionWrapper.wrap(() ->
+        readers.get(new SchemaPair(writer, reader), () -> creator.apply(writer, reader)));
+  }
+
+  public DatumWriter<Object> getWriter(Schema schema, Function<Schema, DatumWriter<Object>> creator) {
+    return ExceptionWrapper.wrap(() -> writers.get(schema, () -> creator.apply(schema)));
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.avro.Protocol;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.ipc.HandshakeMatch;
+import org.apache.avro.ipc.HandshakeRequest;
+import org.apache.avro.ipc.HandshakeResponse;
+import org.apache.avro.ipc.MD5;
+
+import me.tfeng.playmods.spring.ExceptionWrapper;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class HandshakeFrames {
+
+  public static final byte[] BOTH_RESPONSE = encodeBothResponse();
+
+  private static final int MD5_LENGTH = 16;
+
+  // Offset of the meta union index in an encoded handshake request with no client protocol:
+  // clientHash (fixed), clientProtocol (union index 0 for null), serverHash (fixed).
+  private static final int META_OFFSET = MD5_LENGTH + 1 + MD5_LENGTH;
+
+  public static byte[] encodeBothRequest(Protocol protocol) {
+    MD5 hash = new MD5(protocol.getMD5());
+    HandshakeRequest request = new HandshakeRequest();
+    request.setClientHash(hash);
+    request.setServerHash(hash);
+    request.setMeta(Collections.emptyMap());
+    return ExceptionWrapper.wrap(() -> {
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(stream, null);
+      AvroConstants.HANDSHAKE_REQUEST_WRITER.write(request, encoder);
+      encoder.flush();
+      return stream.toByteArray();
+    });
+  }
+
+  // Returns the length of the handshake request at the beginning of the buffers if both its client hash and its server
+  // hash equal the given MD5 and it carries no client protocol and no meta; returns -1 otherwise.
+  public static int getBothRequestLength(List<ByteBuffer> buffers, byte[] md5) {
+    if (buffers.isEmpty()) {
+      return -1;
+    }
+    ByteBuffer buffer = buffers.get(0);
+    int position = buffer.position();
+    if (buffer.remaining() <= META_OFFSET
+        || !matches(buffer, position, md5)
+        || buffer.get(position + MD5_LENGTH) != 0
+        || !matches(buffer, position + MD5_LENGTH + 1, md5)) {
+      return -1;
+    }
+    byte metaIndex = buffer.get(position + META_OFFSET);
+    if (metaIndex == 0) {
+      // Null meta.
+      return META_OFFSET + 1;
+    } else if (metaIndex == 2 && buffer.remaining() > META_OFFSET + 1
+        && buffer.get(position + META_OFFSET + 1) == 0) {
+      // Empty meta map.
+      return META_OFFSET + 2;
+    } else {
+      return -1;
+    }
+  }
+
+  private static byte[] encodeBothResponse() {
+    HandshakeResponse response = new HandshakeResponse();
+    response.setMatch(HandshakeMatch.BOTH);
+    return ExceptionWrapper.wrap(() -> {
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(stream, null);
+      AvroConstants.HANDSHAKE_RESPONSE_WRITER.write(response, encoder);
+      encoder.flush();
+      return stream.toByteArray();
+    });
+  }
+
+  private static boolean matches(ByteBuffer buffer, int offset, byte[] md5) {
+    for (int i = 0; i < MD5_LENGTH; i++) {
+      if (buffer.get(offset + i) != md5[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
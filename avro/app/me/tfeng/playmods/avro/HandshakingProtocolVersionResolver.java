@@ -21,17 +21,25 @@
 package me.tfeng.playmods.avro;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.Arrays;
 
 import org.apache.avro.Protocol;
 import org.apache.avro.io.Decoder;
 import org.apache.avro.io.Encoder;
+import org.apache.avro.ipc.HandshakeMatch;
+import org.apache.avro.ipc.HandshakeRequest;
+import org.apache.avro.ipc.HandshakeResponse;
+import org.apache.avro.ipc.MD5;
+import org.apache.avro.ipc.RPCContext;
 import org.apache.avro.ipc.Responder;
 import org.apache.avro.ipc.Transceiver;
 import org.springframework.stereotype.Component;
 
-import me.tfeng.playmods.spring.ExceptionWrapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import play.Logger;
+import play.Logger.ALogger;
 
 /**
  * @author Thomas Feng (huining.feng@gmail.com)
@@ -39,30 +47,89 @@ import me.tfeng.playmods.spring.ExceptionWrapper;
 @Component("play-mods.avro.protocol-version-resolver")
 public class HandshakingProtocolVersionResolver implements ProtocolVersionResolver {
 
-  private static final Method HANDSHAKE_METHOD;
+  private static final ALogger LOG = Logger.of(HandshakingProtocolVersionResolver.class);
 
-  static {
-    try {
-      HANDSHAKE_METHOD = Responder.class.getDeclaredMethod("handshake", Decoder.class, Encoder.class,
-          Transceiver.class);
-      HANDSHAKE_METHOD.setAccessible(true);
-    } catch (NoSuchMethodException | SecurityException e) {
-      throw ExceptionWrapper.wrap(e);
-    }
-  }
+  private static final int MAXIMUM_CACHED_PROTOCOLS = 1024;
+
+  // Client protocols by their verified MD5.
+  private final Cache<MD5, Protocol> protocolCache =
+      CacheBuilder.newBuilder().maximumSize(MAXIMUM_CACHED_PROTOCOLS).build();
+
+  private final Cache<Protocol, String> protocolStringCache = CacheBuilder.newBuilder().weakKeys().build();
 
   @Override
   public Protocol resolve(Responder responder, Decoder in, Encoder out, Transceiver connection) throws IOException {
+    if (connection != null && connection.isConnected()) {
+      return connection.getRemote();
+    }
+
+    Protocol serverProtocol = responder.getLocal();
+    byte[] serverMD5 = serverProtocol.getMD5();
+    HandshakeRequest request = AvroConstants.HANDSHAKE_REQUEST_READER.read(null, in);
+    Protocol clientProtocol = getClientProtocol(serverProtocol, request);
+
+    HandshakeResponse response = new HandshakeResponse();
+    if (clientProtocol == null) {
+      response.setMatch(HandshakeMatch.NONE);
+    } else if (request.getServerHash() != null && Arrays.equals(request.getServerHash().bytes(), serverMD5)) {
+      response.setMatch(HandshakeMatch.BOTH);
+    } else {
+      response.setMatch(HandshakeMatch.CLIENT);
+    }
+    if (response.getMatch() != HandshakeMatch.BOTH) {
+      response.setServerProtocol(getProtocolString(serverProtocol));
+      response.setServerHash(new MD5(serverMD5));
+    }
+
+    RPCContext context = new RPCContext();
+    context.setHandshakeRequest(request);
+    context.setHandshakeResponse(response);
+    if (responder instanceof AsyncResponder) {
+      ((AsyncResponder) responder).getRPCPlugins().forEach(plugin -> plugin.serverConnecting(context));
+    }
+    AvroConstants.HANDSHAKE_RESPONSE_WRITER.write(response, out);
+
+    if (connection != null && clientProtocol != null) {
+      connection.setRemote(clientProtocol);
+    }
+    return clientProtocol;
+  }
+
+  private Protocol getClientProtocol(Protocol serverProtocol, HandshakeRequest request) {
+    MD5 clientHash = request.getClientHash();
+    if (clientHash == null) {
+      return null;
+    } else if (Arrays.equals(clientHash.bytes(), serverProtocol.getMD5())) {
+      return serverProtocol;
+    }
+
+    Protocol cached = protocolCache.getIfPresent(clientHash);
+    if (cached != null) {
+      return cached;
+    } else if (request.getClientProtocol() == null) {
+      return null;
+    }
+
+    Protocol protocol;
     try {
-      return (Protocol) HANDSHAKE_METHOD.invoke(responder, in, out, connection);
-    } catch (IllegalAccessException e) {
-      throw ExceptionWrapper.wrap(e);
-    } catch (InvocationTargetException e) {
-      if (e.getTargetException() instanceof IOException) {
-        throw (IOException) e.getTargetException();
-      } else {
-        throw ExceptionWrapper.wrap(e.getTargetException());
-      }
+      protocol = Protocol.parse(request.getClientProtocol().toString());
+    } catch (Exception e) {
+      LOG.warn("Unable to parse client protocol for " + serverProtocol.getName(), e);
+      return null;
+    }
+    // Only a protocol that matches the claimed hash is cached, so that one client cannot poison it for others.
+    if (Arrays.equals(protocol.getMD5(), clientHash.bytes())) {
+      protocolCache.put(clientHash, protocol);
+    }
+    return protocol;
+  }
+
+  private String getProtocolString(Protocol protocol) {
+    String protocolString = protocolStringCache.getIfPresent(protocol);
+    if (protocolString == null) {
+      protocolString = protocol.toString();
+      protocolStringCache.put(protocol, protocolString);
     }
+    return protocolString;
   }
 }
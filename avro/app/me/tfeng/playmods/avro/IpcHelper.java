@@ -1,12 +1,25 @@
 package me.tfeng.playmods.avro;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import play.http.HttpEntity;
 import play.mvc.Http.Context;
 
 /**
@@ -29,6 +42,60 @@ public class IpcHelper {
     }
   }
 
+  private static final ThreadLocal<BinaryDecoder> DECODER = new ThreadLocal<>();
+
+  private static final ThreadLocal<BinaryEncoder> ENCODER = new ThreadLocal<>();
+
+  public static BinaryDecoder binaryDecoder(InputStream in) {
+    BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(in, DECODER.get());
+    DECODER.set(decoder);
+    return decoder;
+  }
+
+  public static BinaryEncoder binaryEncoder(OutputStream out) {
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, ENCODER.get());
+    ENCODER.set(encoder);
+    return encoder;
+  }
+
+  public static HttpEntity createEntity(List<ByteBuffer> buffers, long streamingThreshold,
+      Optional<String> contentType) {
+    long contentLength = 0;
+    for (ByteBuffer buffer : buffers) {
+      contentLength += buffer.remaining();
+    }
+
+    if (contentLength <= streamingThreshold) {
+      byte[] bytes = new byte[(int) contentLength];
+      int offset = 0;
+      for (ByteBuffer buffer : buffers) {
+        int length = buffer.remaining();
+        buffer.duplicate().get(bytes, offset, length);
+        offset += length;
+      }
+      ByteBufferPool.SHARED.release(buffers);
+      return new HttpEntity.Strict(ByteString.fromArrayUnsafe(bytes), contentType);
+    } else {
+      // Large entities are streamed one buffer at a time. Each buffer is copied as it is sent and returned to the pool
+      // right away, since the server may still hold the sent bytes after the stream completes. Buffers not yet sent
+      // when the stream completes, fails or is cancelled are returned at that point.
+      AtomicInteger sent = new AtomicInteger();
+      Source<ByteString, ?> source = Source.from(buffers)
+          .map(buffer -> {
+            ByteString bytes = ByteString.fromByteBuffer(buffer);
+            ByteBufferPool.SHARED.release(buffer);
+            sent.incrementAndGet();
+            return bytes;
+          })
+          .watchTermination((materialized, done) -> {
+            done.whenComplete((result, error) ->
+                ByteBufferPool.SHARED.release(buffers.subList(sent.get(), buffers.size())));
+            return materialized;
+          });
+      return new HttpEntity.Streamed(source, Optional.of(contentLength), contentType);
+    }
+  }
+
   public static <T, R> Function<T, R> preserveContext(Function<T, R> function) {
     AllContexts contexts = getContexts();
     return t -> {
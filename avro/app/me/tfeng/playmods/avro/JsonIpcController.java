@@ -24,6 +24,11 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
@@ -33,31 +38,37 @@ import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Protocol;
 import org.apache.avro.Protocol.Message;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.ipc.Responder;
-import org.apache.avro.ipc.specific.SpecificResponder;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.specific.SpecificData;
 import org.apache.avro.specific.SpecificExceptionBase;
 import org.apache.http.entity.ContentType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.io.BaseEncoding;
 import com.google.inject.Inject;
 
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
 import akka.util.ByteIterator;
 import akka.util.ByteString;
-import me.tfeng.playmods.avro.factories.ResponderFactory;
+import akka.util.ByteStringBuilder;
+import me.tfeng.playmods.avro.ResponderRegistry.Route;
+import me.tfeng.playmods.spring.ApplicationError;
 import me.tfeng.playmods.spring.ExceptionWrapper;
-import me.tfeng.toolbox.avro.AvroHelper;
 import me.tfeng.toolbox.common.Constants;
-import play.Application;
 import play.Logger;
 import play.Logger.ALogger;
+import play.http.HttpEntity;
 import play.libs.Json;
 import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.Results;
 
@@ -69,18 +80,54 @@ public class JsonIpcController extends Controller {
 
   public static final String CONTENT_TYPE = "avro/json";
 
+  public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+  private static final SimpleJsonWriter JSON_WRITER = new SimpleJsonWriter(SpecificData.get());
+
   private static final ALogger LOG = Logger.of(JsonIpcController.class);
 
-  @Inject
-  private Application application;
+  private static final String RESULT_CONTENT_TYPE = Http.MimeTypes.TEXT + "; charset=utf-8";
 
   @Autowired
   @Qualifier("play-mods.avro.component")
   private AvroComponent avroComponent;
 
-  @Autowired
-  @Qualifier("play-mods.avro.responder-factory")
-  private ResponderFactory responderFactory;
+  @Value("${play-mods.avro.cache-control:no-cache}")
+  private String defaultCacheControl;
+
+  @Inject
+  private Materializer materializer;
+
+  @Value("${play-mods.avro.streaming-threshold:65536}")
+  private long streamingThreshold;
+
+  public CompletionStage<Result> get(String protocol, String message) throws Throwable {
+    Route route = getRoute(protocol);
+    AsyncResponder responder = route.getResponder();
+    Protocol avroProtocol = route.getProtocol();
+    Message avroMessage = getMessage(route, message);
+    Method method = requireImplementationMethod(route, avroMessage);
+    AvroCacheable cacheable = method.getAnnotation(AvroCacheable.class);
+    if (cacheable == null) {
+      cacheable = route.getImplementation().getClass().getAnnotation(AvroCacheable.class);
+    }
+    if (cacheable == null) {
+      throw new ApplicationError(Http.Status.METHOD_NOT_ALLOWED, "Message " + message + " in protocol " + protocol
+          + " is not cacheable");
+    }
+    String cacheControl = cacheable.cacheControl().isEmpty() ? defaultCacheControl : cacheable.cacheControl();
+    Object request = getRequest(responder, avroMessage, request().queryString());
+    Optional<String> ifNoneMatch = request().header(Http.HeaderNames.IF_NONE_MATCH);
+
+    Function<Throwable, Result> errorConverter = getErrorConverter(avroProtocol, avroMessage);
+
+    CompletionStage<Object> completionStage = responder.invoke(avroMessage, request);
+    return completionStage
+        .thenCompose(this::toCollection)
+        .thenApply(IpcHelper.preserveContext(result ->
+            convertCacheableResult(avroMessage, result, ifNoneMatch, cacheControl)))
+        .exceptionally(errorConverter);
+  }
 
   @BodyParser.Of(BodyParser.Raw.class)
   public CompletionStage<Result> post(String protocol, String message) throws Throwable {
@@ -95,58 +142,50 @@ public class JsonIpcController extends Controller {
       throw new RuntimeException("Missing content type; " + CONTENT_TYPE + " is expected");
     }
 
-    Class<?> protocolClass = application.classloader().loadClass(protocol);
-    Object implementation = avroComponent.getProtocolImplementations().get(protocolClass);
-    Protocol avroProtocol = AvroHelper.getProtocol(protocolClass);
-    Message avroMessage = avroProtocol.getMessages().get(message);
+    Route route = getRoute(protocol);
+    AsyncResponder responder = route.getResponder();
+    Protocol avroProtocol = route.getProtocol();
+    Message avroMessage = getMessage(route, message);
     ByteString bytes = request().body().asRaw().asBytes();
-    AsyncResponder responder = createResponder(protocolClass, implementation);
     Object request = getRequest(responder, avroMessage, bytes);
-    Method method = getMethod(responder, implementation, avroMessage, request);
+    requireImplementationMethod(route, avroMessage);
 
     Function<Object, CompletionStage<Result>> resultConverter = getResultConverter(avroProtocol, avroMessage);
     Function<Throwable, Result> errorConverter = getErrorConverter(avroProtocol, avroMessage);
 
-    CompletionStage<?> completionStage;
-    if (CompletionStage.class.isAssignableFrom(method.getReturnType())) {
-      completionStage = (CompletionStage<?>) responder.respond(avroMessage, request);
-    } else {
-      try {
-        completionStage = CompletableFuture.completedFuture(responder.respond(avroMessage, request));
-      } catch (SpecificExceptionBase e) {
-        return CompletableFuture.completedFuture(errorConverter.apply(e));
-      }
-    }
-
+    CompletionStage<Object> completionStage = responder.invoke(avroMessage, request);
     return completionStage.thenCompose(IpcHelper.preserveContext(resultConverter)).exceptionally(errorConverter);
   }
 
   protected Result convertErrorResult(Protocol protocol, Message message, Throwable t) {
     t = ExceptionWrapper.unwrap(t);
     if (t instanceof SpecificExceptionBase) {
-      try {
-        String errorContent = AvroHelper.toSimpleJson(message.getErrors(), t);
+      List<ByteBuffer> buffers = toSimpleJson(message.getErrors(), t);
+      if (LOG.isErrorEnabled()) {
+        ByteString errorContent = ByteString.empty();
+        for (ByteBuffer buffer : buffers) {
+          errorContent = errorContent.concat(ByteString.fromByteBuffer(buffer.duplicate()));
+        }
         LOG.error("Error occurred while processing request (message = " + message.getName() + ", protocol = "
-            + protocol.getName() + "): " + errorContent, t);
-        return Results.badRequest(errorContent);
-      } catch (IOException e) {
-        throw ExceptionWrapper.wrap(e);
+            + protocol.getName() + "): " + errorContent.utf8String(), t);
       }
+      return Results.badRequest().sendEntity(createEntity(buffers));
     } else {
       throw ExceptionWrapper.wrap(t);
     }
   }
 
   protected CompletionStage<Result> convertResult(Protocol protocol, Message message, Object result) {
-    try {
-      return CompletableFuture.completedFuture(Results.ok(AvroHelper.toSimpleJson(message.getResponse(), result)));
-    } catch (IOException e) {
-      throw ExceptionWrapper.wrap(e);
+    if (message.getResponse().getType() == Schema.Type.ARRAY && isNdjsonAccepted()) {
+      return CompletableFuture.completedFuture(createNdjsonResult(message.getResponse().getElementType(), result));
+    } else {
+      return toCollection(result).thenApply(collection ->
+          Results.ok().sendEntity(createEntity(toSimpleJson(message.getResponse(), collection))));
     }
   }
 
-  protected AsyncResponder createResponder(Class<?> protocolClass, Object implementation) {
-    return responderFactory.create(protocolClass, implementation);
+  protected ResponderRegistry getResponderRegistry() {
+    return avroComponent.getResponderRegistry();
   }
 
   protected Function<Throwable, Result> getErrorConverter(Protocol protocol, Message message) {
@@ -158,24 +197,62 @@ public class JsonIpcController extends Controller {
     return IpcHelper.preserveContext(result -> convertResult(protocol, message, result));
   }
 
-  private Method getMethod(SpecificResponder responder, Object implementation, Message message, Object request) {
-    int numParams = message.getRequest().getFields().size();
-    Object[] params = new Object[numParams];
-    Class[] paramTypes = new Class[numParams];
-    int i = 0;
-    for (Schema.Field param: message.getRequest().getFields()) {
-      params[i] = ((GenericRecord) request).get(param.name());
-      paramTypes[i] = responder.getSpecificData().getClass(param.schema());
-      i++;
+  private Result convertCacheableResult(Message message, Object result, Optional<String> ifNoneMatch,
+      String cacheControl) {
+    List<ByteBuffer> buffers = toSimpleJson(message.getResponse(), result);
+    String eTag = getETag(buffers);
+    Result cacheableResult;
+    if (ifNoneMatch.isPresent() && matchesETag(ifNoneMatch.get(), eTag)) {
+      ByteBufferPool.SHARED.release(buffers);
+      cacheableResult = Results.status(Http.Status.NOT_MODIFIED);
+    } else {
+      cacheableResult = Results.ok().sendEntity(createEntity(buffers));
     }
-    try {
-      return implementation.getClass().getMethod(message.getName(), paramTypes);
-    } catch (NoSuchMethodException e) {
-      throw new AvroRuntimeException(e);
+    return cacheableResult
+        .withHeader(Http.HeaderNames.ETAG, eTag)
+        .withHeader(Http.HeaderNames.CACHE_CONTROL, cacheControl);
+  }
+
+  private HttpEntity createEntity(List<ByteBuffer> buffers) {
+    return IpcHelper.createEntity(buffers, streamingThreshold, Optional.of(RESULT_CONTENT_TYPE));
+  }
+
+  private String getETag(List<ByteBuffer> buffers) {
+    MessageDigest digest = ExceptionWrapper.wrap(() -> MessageDigest.getInstance("MD5"));
+    for (ByteBuffer buffer : buffers) {
+      digest.update(buffer.duplicate());
+    }
+    return "\"" + BaseEncoding.base16().lowerCase().encode(digest.digest()) + "\"";
+  }
+
+  private Message getMessage(Route route, String message) {
+    Message avroMessage = route.getProtocol().getMessages().get(message);
+    if (avroMessage == null) {
+      throw new ApplicationError(Http.Status.NOT_FOUND, "No message " + message + " is found in protocol "
+          + route.getProtocolClass().getName());
+    }
+    return avroMessage;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Result createNdjsonResult(Schema elementSchema, Object result) {
+    Source<Object, ?> source;
+    if (result instanceof Source) {
+      source = (Source<Object, ?>) result;
+    } else if (result instanceof Iterator) {
+      Iterator<Object> iterator = (Iterator<Object>) result;
+      source = Source.fromIterator(() -> iterator);
+    } else {
+      source = Source.from((Iterable<Object>) result);
     }
+    return Results.ok().chunked(source.map(element -> {
+      ByteStringBuilder builder = ByteString.createBuilder();
+      JSON_WRITER.write(elementSchema, element, builder.asOutputStream());
+      return builder.putByte((byte) '\n').result();
+    })).as(NDJSON_CONTENT_TYPE);
   }
 
-  private Object getRequest(Responder responder, Message message, ByteString bytes) throws IOException {
+  private Object getRequest(AsyncResponder responder, Message message, ByteString bytes) throws IOException {
     ByteIterator iterator = bytes.iterator();
     InputStream inputStream;
     if (iterator.hasNext()) {
@@ -184,10 +261,91 @@ public class JsonIpcController extends Controller {
       byte[] emptyBytes = "{}".getBytes(Constants.UTF8);
       inputStream = new ByteArrayInputStream(emptyBytes);
     }
-    Schema schema = message.getRequest();
-    JsonNode node = Json.parse(inputStream);
-    node = AvroHelper.convertFromSimpleRecord(schema, node);
-    return responder.readRequest(message.getRequest(), message.getRequest(),
-        DecoderFactory.get().jsonDecoder(schema, node.toString()));
+    return new SimpleJsonReader(responder.getSpecificData()).read(message.getRequest(), inputStream);
+  }
+
+  private Object getRequest(AsyncResponder responder, Message message, Map<String, String[]> queryString)
+      throws IOException {
+    ObjectNode node = Json.newObject();
+    for (Field field : message.getRequest().getFields()) {
+      String[] values = queryString.get(field.name());
+      if (values != null && values.length > 0) {
+        String value = values[0];
+        if (!"null".equals(value) && isTextual(field.schema())) {
+          node.set(field.name(), TextNode.valueOf(value));
+        } else {
+          try {
+            node.set(field.name(), Json.parse(value));
+          } catch (RuntimeException e) {
+            throw new ApplicationError(Http.Status.BAD_REQUEST, "Invalid value for parameter " + field.name(), e);
+          }
+        }
+      }
+    }
+    return new SimpleJsonReader(responder.getSpecificData()).read(message.getRequest(), node.traverse());
+  }
+
+  private Route getRoute(String protocol) {
+    Route route = getResponderRegistry().getRoute(protocol);
+    if (route == null) {
+      throw new ApplicationError(Http.Status.NOT_FOUND, "No implementation is found for protocol " + protocol);
+    }
+    return route;
+  }
+
+  private boolean isNdjsonAccepted() {
+    return request().header(Http.HeaderNames.ACCEPT).map(accept -> accept.contains(NDJSON_CONTENT_TYPE)).orElse(false);
+  }
+
+  private boolean isTextual(Schema schema) {
+    switch (schema.getType()) {
+    case BYTES:
+    case ENUM:
+    case FIXED:
+    case STRING:
+      return true;
+    case UNION:
+      return schema.getTypes().stream().anyMatch(this::isTextual);
+    default:
+      return false;
+    }
+  }
+
+  private boolean matchesETag(String ifNoneMatch, String eTag) {
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*") || tag.equals(eTag) || tag.equals("W/" + eTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Method requireImplementationMethod(Route route, Message message) {
+    Method method = route.getResponder().getImplementationMethod(message);
+    if (method == null) {
+      throw new AvroRuntimeException("No implementation method is found for message " + message.getName()
+          + " in protocol " + route.getProtocolClass().getName());
+    }
+    return method;
+  }
+
+  @SuppressWarnings("unchecked")
+  private CompletionStage<Object> toCollection(Object result) {
+    if (result instanceof Source) {
+      return ((Source<Object, ?>) result).runWith(Sink.seq(), materializer).thenApply(list -> list);
+    } else {
+      return CompletableFuture.completedFuture(result);
+    }
+  }
+
+  private List<ByteBuffer> toSimpleJson(Schema schema, Object datum) {
+    PooledByteBufferOutputStream outputStream = new PooledByteBufferOutputStream();
+    try {
+      JSON_WRITER.write(schema, datum, outputStream);
+    } catch (IOException e) {
+      throw ExceptionWrapper.wrap(e);
+    }
+    return outputStream.getBufferList();
   }
 }
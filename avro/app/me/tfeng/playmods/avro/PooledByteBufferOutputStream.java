@@ -0,0 +1,95 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class PooledByteBufferOutputStream extends OutputStream {
+
+  private List<ByteBuffer> buffers = new ArrayList<>();
+
+  private final ByteBufferPool pool;
+
+  public PooledByteBufferOutputStream() {
+    this(ByteBufferPool.SHARED);
+  }
+
+  public PooledByteBufferOutputStream(ByteBufferPool pool) {
+    this.pool = pool;
+  }
+
+  public void append(List<ByteBuffer> lists) {
+    for (ByteBuffer buffer : lists) {
+      buffer.position(buffer.limit());
+    }
+    buffers.addAll(lists);
+  }
+
+  public List<ByteBuffer> getBufferList() {
+    List<ByteBuffer> result = buffers;
+    buffers = new ArrayList<>();
+    for (ByteBuffer buffer : result) {
+      buffer.flip();
+    }
+    return result;
+  }
+
+  public void prepend(List<ByteBuffer> lists) {
+    for (ByteBuffer buffer : lists) {
+      buffer.position(buffer.limit());
+    }
+    buffers.addAll(0, lists);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ByteBuffer buffer = getWritableBuffer();
+    int remaining = buffer.remaining();
+    while (len > remaining) {
+      buffer.put(b, off, remaining);
+      len -= remaining;
+      off += remaining;
+      buffer = getWritableBuffer();
+      remaining = buffer.remaining();
+    }
+    buffer.put(b, off, len);
+  }
+
+  @Override
+  public void write(int b) {
+    getWritableBuffer().put((byte) b);
+  }
+
+  private ByteBuffer getWritableBuffer() {
+    ByteBuffer buffer = buffers.isEmpty() ? null : buffers.get(buffers.size() - 1);
+    if (buffer == null || !buffer.hasRemaining()) {
+      buffer = pool.allocate();
+      buffers.add(buffer);
+    }
+    return buffer;
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro;
+
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import org.apache.avro.Protocol;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class ResponderRegistry {
+
+  public static class Route {
+
+    private final Object implementation;
+
+    private final Protocol protocol;
+
+    private final Class<?> protocolClass;
+
+    private final AsyncResponder responder;
+
+    private Route(Class<?> protocolClass, Object implementation, AsyncResponder responder) {
+      this.protocolClass = protocolClass;
+      this.implementation = implementation;
+      this.responder = responder;
+      protocol = responder.getLocal();
+    }
+
+    public Object getImplementation() {
+      return implementation;
+    }
+
+    public Protocol getProtocol() {
+      return protocol;
+    }
+
+    public Class<?> getProtocolClass() {
+      return protocolClass;
+    }
+
+    public AsyncResponder getResponder() {
+      return responder;
+    }
+  }
+
+  private final Map<String, Route> routes;
+
+  public ResponderRegistry(Map<Class<?>, Object> protocolImplementations,
+      BiFunction<Class<?>, Object, AsyncResponder> responderCreator) {
+    ImmutableMap.Builder<String, Route> builder = ImmutableMap.builder();
+    protocolImplementations.forEach((protocolClass, implementation) ->
+        builder.put(protocolClass.getName(),
+            new Route(protocolClass, implementation, responderCreator.apply(protocolClass, implementation))));
+    routes = builder.build();
+  }
+
+  public Route getRoute(String protocol) {
+    return routes.get(protocol);
+  }
+
+  public Map<String, Route> getRoutes() {
+    return routes;
+  }
+}
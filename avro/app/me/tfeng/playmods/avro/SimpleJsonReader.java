@@ -0,0 +1,234 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.util.Utf8;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class SimpleJsonReader {
+
+  public static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final SpecificData data;
+
+  public SimpleJsonReader(SpecificData data) {
+    this.data = data;
+  }
+
+  public Object read(Schema schema, InputStream inputStream) throws IOException {
+    try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+      return read(schema, parser);
+    }
+  }
+
+  public Object read(Schema schema, JsonParser parser) throws IOException {
+    if (parser.nextToken() == null) {
+      throw new AvroTypeException("Expected " + schema.getType() + " but reached end of input");
+    }
+    Object value = readDatum(schema, parser);
+    if (parser.nextToken() != null) {
+      throw new AvroTypeException("Unexpected " + parser.getCurrentToken() + " after end of value");
+    }
+    return value;
+  }
+
+  private Object createString(Schema schema, String value) {
+    if (GenericData.StringType.String.name().equals(schema.getProp(GenericData.STRING_PROP))) {
+      return value;
+    } else {
+      return new Utf8(value);
+    }
+  }
+
+  private void expect(Schema schema, JsonParser parser, JsonToken... tokens) {
+    JsonToken token = parser.getCurrentToken();
+    for (JsonToken expected : tokens) {
+      if (token == expected) {
+        return;
+      }
+    }
+    throw new AvroTypeException("Expected " + schema.getType() + " but found " + token);
+  }
+
+  private Object getMissingValue(Field field) {
+    if (field.defaultVal() != null) {
+      return data.getDefaultValue(field);
+    } else if (isNullable(field.schema())) {
+      return null;
+    } else {
+      throw new AvroTypeException("Field " + field.name() + " is missing and has no default value");
+    }
+  }
+
+  private boolean isNullable(Schema schema) {
+    switch (schema.getType()) {
+    case NULL:
+      return true;
+    case UNION:
+      return schema.getIndexNamed(Schema.Type.NULL.getName()) != null;
+    default:
+      return false;
+    }
+  }
+
+  private boolean matches(Schema schema, JsonParser parser) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    switch (schema.getType()) {
+    case ARRAY:
+      return token == JsonToken.START_ARRAY;
+    case BOOLEAN:
+      return token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE;
+    case BYTES:
+    case STRING:
+      return token == JsonToken.VALUE_STRING;
+    case DOUBLE:
+    case FLOAT:
+      return token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT;
+    case ENUM:
+      return token == JsonToken.VALUE_STRING && schema.hasEnumSymbol(parser.getText());
+    case FIXED:
+      return token == JsonToken.VALUE_STRING && parser.getText().length() == schema.getFixedSize();
+    case INT:
+    case LONG:
+      return token == JsonToken.VALUE_NUMBER_INT;
+    case MAP:
+    case RECORD:
+      return token == JsonToken.START_OBJECT;
+    case NULL:
+      return token == JsonToken.VALUE_NULL;
+    default:
+      return false;
+    }
+  }
+
+  private Object readDatum(Schema schema, JsonParser parser) throws IOException {
+    switch (schema.getType()) {
+    case ARRAY:
+      expect(schema, parser, JsonToken.START_ARRAY);
+      GenericData.Array<Object> array = new GenericData.Array<>(0, schema);
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        array.add(readDatum(schema.getElementType(), parser));
+      }
+      return array;
+    case BOOLEAN:
+      expect(schema, parser, JsonToken.VALUE_TRUE, JsonToken.VALUE_FALSE);
+      return parser.getBooleanValue();
+    case BYTES:
+      expect(schema, parser, JsonToken.VALUE_STRING);
+      return ByteBuffer.wrap(parser.getText().getBytes(StandardCharsets.ISO_8859_1));
+    case DOUBLE:
+      expect(schema, parser, JsonToken.VALUE_NUMBER_FLOAT, JsonToken.VALUE_NUMBER_INT);
+      return parser.getDoubleValue();
+    case ENUM:
+      expect(schema, parser, JsonToken.VALUE_STRING);
+      String symbol = parser.getText();
+      if (!schema.hasEnumSymbol(symbol)) {
+        throw new AvroTypeException("Unknown symbol " + symbol + " for enum " + schema.getFullName());
+      }
+      return data.createEnum(symbol, schema);
+    case FIXED:
+      expect(schema, parser, JsonToken.VALUE_STRING);
+      byte[] bytes = parser.getText().getBytes(StandardCharsets.ISO_8859_1);
+      if (bytes.length != schema.getFixedSize()) {
+        throw new AvroTypeException("Expected " + schema.getFixedSize() + " bytes for fixed " + schema.getFullName()
+            + " but found " + bytes.length);
+      }
+      return data.createFixed(null, bytes, schema);
+    case FLOAT:
+      expect(schema, parser, JsonToken.VALUE_NUMBER_FLOAT, JsonToken.VALUE_NUMBER_INT);
+      return parser.getFloatValue();
+    case INT:
+      expect(schema, parser, JsonToken.VALUE_NUMBER_INT);
+      return parser.getIntValue();
+    case LONG:
+      expect(schema, parser, JsonToken.VALUE_NUMBER_INT);
+      return parser.getLongValue();
+    case MAP:
+      expect(schema, parser, JsonToken.START_OBJECT);
+      Map<Object, Object> map = new HashMap<>();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        Object key = createString(schema, parser.getCurrentName());
+        parser.nextToken();
+        map.put(key, readDatum(schema.getValueType(), parser));
+      }
+      return map;
+    case NULL:
+      expect(schema, parser, JsonToken.VALUE_NULL);
+      return null;
+    case RECORD:
+      expect(schema, parser, JsonToken.START_OBJECT);
+      return readRecord(schema, parser);
+    case STRING:
+      expect(schema, parser, JsonToken.VALUE_STRING);
+      return createString(schema, parser.getText());
+    case UNION:
+      for (Schema type : schema.getTypes()) {
+        if (matches(type, parser)) {
+          return readDatum(type, parser);
+        }
+      }
+      throw new AvroTypeException("Unable to match " + parser.getCurrentToken() + " with " + schema);
+    default:
+      throw new AvroTypeException("Unsupported type " + schema.getType());
+    }
+  }
+
+  private Object readRecord(Schema schema, JsonParser parser) throws IOException {
+    Object record = data.newRecord(null, schema);
+    List<Field> fields = schema.getFields();
+    boolean[] present = new boolean[fields.size()];
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      Field field = schema.getField(parser.getCurrentName());
+      parser.nextToken();
+      if (field == null) {
+        parser.skipChildren();
+      } else {
+        data.setField(record, field.name(), field.pos(), readDatum(field.schema(), parser));
+        present[field.pos()] = true;
+      }
+    }
+    for (Field field : fields) {
+      if (!present[field.pos()]) {
+        data.setField(record, field.name(), field.pos(), getMissingValue(field));
+      }
+    }
+    return record;
+  }
+}
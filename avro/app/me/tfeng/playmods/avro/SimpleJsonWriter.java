@@ -0,0 +1,127 @@
+/**
+ * Copyright 2016 Thomas Feng
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tfeng.playmods.avro;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericFixed;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * @author Thomas Feng (huining.feng@gmail.com)
+ */
+public class SimpleJsonWriter {
+
+  private final GenericData data;
+
+  public SimpleJsonWriter(GenericData data) {
+    this.data = data;
+  }
+
+  public void write(Schema schema, Object datum, OutputStream outputStream) throws IOException {
+    try (JsonGenerator generator = SimpleJsonReader.JSON_FACTORY.createGenerator(outputStream)) {
+      write(schema, datum, generator);
+    }
+  }
+
+  private String toString(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+          StandardCharsets.ISO_8859_1);
+    } else {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+  }
+
+  private void write(Schema schema, Object datum, JsonGenerator generator) throws IOException {
+    switch (schema.getType()) {
+    case ARRAY:
+      Iterator<?> iterator = datum instanceof Iterator ? (Iterator<?>) datum : ((Iterable<?>) datum).iterator();
+      generator.writeStartArray();
+      while (iterator.hasNext()) {
+        write(schema.getElementType(), iterator.next(), generator);
+      }
+      generator.writeEndArray();
+      break;
+    case BOOLEAN:
+      generator.writeBoolean((Boolean) datum);
+      break;
+    case BYTES:
+      generator.writeString(toString((ByteBuffer) datum));
+      break;
+    case DOUBLE:
+      generator.writeNumber(((Number) datum).doubleValue());
+      break;
+    case ENUM:
+    case STRING:
+      generator.writeString(datum.toString());
+      break;
+    case FIXED:
+      generator.writeString(new String(((GenericFixed) datum).bytes(), StandardCharsets.ISO_8859_1));
+      break;
+    case FLOAT:
+      generator.writeNumber(((Number) datum).floatValue());
+      break;
+    case INT:
+      generator.writeNumber(((Number) datum).intValue());
+      break;
+    case LONG:
+      generator.writeNumber(((Number) datum).longValue());
+      break;
+    case MAP:
+      generator.writeStartObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) datum).entrySet()) {
+        generator.writeFieldName(entry.getKey().toString());
+        write(schema.getValueType(), entry.getValue(), generator);
+      }
+      generator.writeEndObject();
+      break;
+    case NULL:
+      generator.writeNull();
+      break;
+    case RECORD:
+      generator.writeStartObject();
+      for (Field field : schema.getFields()) {
+        generator.writeFieldName(field.name());
+        write(field.schema(), data.getField(datum, field.name(), field.pos()), generator);
+      }
+      generator.writeEndObject();
+      break;
+    case UNION:
+      write(schema.getTypes().get(data.resolveUnion(schema, datum)), datum, generator);
+      break;
+    default:
+      throw new AvroTypeException("Unsupported type " + schema.getType());
+    }
+  }
+}
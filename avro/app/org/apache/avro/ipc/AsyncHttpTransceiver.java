@@ -37,6 +37,7 @@ import me.tfeng.playmods.http.RequestPoster;
 import me.tfeng.playmods.http.RequestPreparer;
 import me.tfeng.playmods.spring.ApplicationError;
 import me.tfeng.playmods.spring.ExceptionWrapper;
+import play.libs.concurrent.HttpExecution;
 import play.libs.ws.StandaloneWSResponse;
 import play.shaded.ahc.org.asynchttpclient.Response;
 
@@ -98,7 +99,7 @@ public class AsyncHttpTransceiver extends HttpTransceiver implements AsyncTransc
           ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
           writeBuffers(buffers, outputStream);
           return outputStream;
-        }), executor)
+        }), HttpExecution.fromThread(executor))
         .thenCompose(IpcHelper.preserveContext(ExceptionWrapper.wrapFunction(outputStream ->
             postRequest(url, outputStream.toByteArray(), postRequestPreparer))));
   }
@@ -30,17 +30,23 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.avro.Protocol;
+import org.apache.avro.Protocol.Message;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.ipc.specific.SpecificRequestor;
 import org.apache.avro.specific.SpecificData;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.util.ByteBufferOutputStream;
 
 import me.tfeng.playmods.avro.AsyncTransceiver;
+import me.tfeng.playmods.avro.AvroConstants;
+import me.tfeng.playmods.avro.DatumCache;
+import me.tfeng.playmods.avro.HandshakeFrames;
 import me.tfeng.playmods.avro.IpcHelper;
 import me.tfeng.playmods.avro.ResponseProcessor;
 import me.tfeng.playmods.http.RequestPreparer;
@@ -53,11 +59,70 @@ public class AsyncRequestor extends SpecificRequestor {
 
   public class Request extends Requestor.Request {
 
+    private final Object request;
+
+    private List<ByteBuffer> requestBytes;
+
     public Request(String messageName, Object request, RPCContext context) {
       super(messageName, request, context);
+      this.request = request;
+    }
+
+    @Override
+    public List<ByteBuffer> getBytes() throws Exception {
+      if (!rpcMetaPlugins.isEmpty()) {
+        // Plugins may contribute handshake meta, so let Requestor write the handshake.
+        return super.getBytes();
+      }
+
+      if (requestBytes == null) {
+        ByteBufferOutputStream bbo = new ByteBufferOutputStream();
+        BinaryEncoder out = IpcHelper.binaryEncoder(bbo);
+        Message message = getMessage();
+        RPCContext context = getContext();
+        context.setMessage(message);
+        writeRequest(message.getRequest(), request, out);
+        out.flush();
+        List<ByteBuffer> payload = bbo.getBufferList();
+        out.writeFixed(handshakeFrame);
+        context.setRequestPayload(payload);
+        AvroConstants.META_WRITER.write(context.requestCallMeta(), out);
+        out.writeString(message.getName());
+        out.flush();
+        bbo.append(payload);
+        requestBytes = bbo.getBufferList();
+      }
+      return requestBytes;
     }
   }
 
+  public static Object getResult(Method method, CompletionStage<Object> completionStage, int requestTimeout)
+      throws Throwable {
+    if (CompletionStage.class.isAssignableFrom(method.getReturnType())) {
+      return completionStage;
+    } else {
+      try {
+        return completionStage.toCompletableFuture().get(requestTimeout, TimeUnit.MILLISECONDS);
+      } catch (ExecutionException t) {
+        Throwable cause = ExceptionWrapper.unwrap(t);
+        if (cause instanceof RuntimeException) {
+          throw cause;
+        }
+        Class<?>[] exceptionTypes = method.getExceptionTypes();
+        for (Class<?> exceptionType : exceptionTypes) {
+          if (exceptionType.isInstance(cause)) {
+            throw cause;
+          }
+        }
+        throw t;
+      }
+    }
+  }
+
+  private final DatumCache datumCache = new DatumCache();
+
+  private final byte[] handshakeFrame;
+
   private final RequestPreparer requestPreparer;
 
   private final int requestTimeout;
@@ -70,6 +135,7 @@ public class AsyncRequestor extends SpecificRequestor {
       RequestPreparer requestPreparer, ResponseProcessor responseProcessor, boolean useGenericRecord)
       throws IOException {
     super(protocol, (Transceiver) transceiver, data);
+    handshakeFrame = HandshakeFrames.encodeBothRequest(getLocal());
     this.requestTimeout = requestTimeout;
     this.requestPreparer = requestPreparer;
     this.responseProcessor = responseProcessor;
@@ -78,20 +144,24 @@ public class AsyncRequestor extends SpecificRequestor {
 
   @Override
   public DatumReader<Object> getDatumReader(Schema writer, Schema reader) {
-    if (useGenericRecord) {
-      return new GenericDatumReader<>(writer, reader);
-    } else {
-      return new SpecificDatumReader<>(writer, reader, getSpecificData());
-    }
+    return datumCache.getReader(writer, reader, (writerSchema, readerSchema) -> {
+      if (useGenericRecord) {
+        return new GenericDatumReader<>(writerSchema, readerSchema);
+      } else {
+        return new SpecificDatumReader<>(writerSchema, readerSchema, getSpecificData());
+      }
+    });
   }
 
   @Override
   public DatumWriter<Object> getDatumWriter(Schema schema) {
-    if (useGenericRecord) {
-      return new GenericDatumWriter<>(schema);
-    } else {
-      return new SpecificDatumWriter<>(schema, getSpecificData());
-    }
+    return datumCache.getWriter(schema, writerSchema -> {
+      if (useGenericRecord) {
+        return new GenericDatumWriter<>(writerSchema);
+      } else {
+        return new SpecificDatumWriter<>(writerSchema, getSpecificData());
+      }
+    });
   }
 
   public List<RPCPlugin> getRPCPlugins() {
@@ -100,29 +170,15 @@ public class AsyncRequestor extends SpecificRequestor {
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    CompletionStage<Object> completionStage = request(method.getName(), args);
-    if (CompletionStage.class.isAssignableFrom(method.getReturnType())) {
-      return completionStage;
-    } else {
-      try {
-        return completionStage.toCompletableFuture().get(requestTimeout, TimeUnit.MILLISECONDS);
-      } catch (ExecutionException t) {
-        Throwable cause = ExceptionWrapper.unwrap(t);
-        if (cause instanceof RuntimeException) {
-          throw cause;
-        }
-        Class<?>[] exceptionTypes = method.getExceptionTypes();
-        for (Class<?> exceptionType : exceptionTypes) {
-          if (exceptionType.isInstance(cause)) {
-            throw cause;
-          }
-        }
-        throw t;
-      }
-    }
+    return getResult(method, request(method.getName(), args), requestTimeout);
   }
 
   public CompletionStage<Object> request(String message, Object[] args) throws Exception {
+    return request(message, args, requestPreparer);
+  }
+
+  public CompletionStage<Object> request(String message, Object[] args, RequestPreparer requestPreparer)
+      throws Exception {
     AsyncTransceiver transceiver = (AsyncTransceiver) getTransceiver();
     Request ipcRequest = new Request(message, args, new RPCContext());
     CallFuture<Object> callFuture = ipcRequest.getMessage().isOneWay() ? null : new CallFuture<>();